@@ -3,22 +3,25 @@ package io.github.gsantner.memetastic;
 import android.app.Activity;
 import android.app.Application;
 import android.content.Intent;
-import android.graphics.Bitmap;
 import android.graphics.Typeface;
 import android.net.Uri;
-import android.support.v4.content.FileProvider;
 import android.util.Log;
 
-import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import io.github.gsantner.memetastic.data.MemeCategory;
 import io.github.gsantner.memetastic.data.MemeFont;
 import io.github.gsantner.memetastic.data.MemeLibConfig;
+import io.github.gsantner.memetastic.data.MemeManifest;
+import io.github.gsantner.memetastic.data.MemeOriginAssets;
 import io.github.gsantner.memetastic.util.AppSettings;
-import io.github.gsantner.memetastic.util.Helpers;
+import io.github.gsantner.memetastic.util.ImageCache;
+import io.github.gsantner.memetastic.util.MemeShareProvider;
+import io.github.gsantner.memetastic.util.ThumbnailMaintenance;
 
 /**
  * The apps application object
@@ -27,6 +30,8 @@ public class App extends Application {
     private volatile static App app;
     public AppSettings settings;
     List<MemeCategory> memeCategories;
+    Map<String, MemeManifest.Entry> memeManifestEntries;
+    Map<String, MemeOriginAssets> memeOrigins = new HashMap<>();
     List<MemeFont> fonts;
 
     public static App get() {
@@ -40,13 +45,21 @@ public class App extends Application {
 
         settings = AppSettings.get();
         loadFonts();
-        loadMemeNames();
 
         if (settings.isAppFirstStart(false)) {
             // Set default values (calculated in getters)
             settings.setGridColumnCountPortrait(settings.getGridColumnCountPortrait());
             settings.setGridColumnCountLandscape(settings.getGridColumnCountLandscape());
         }
+        ThumbnailMaintenance.schedule(this);
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (level >= TRIM_MEMORY_MODERATE) {
+            ImageCache.get().clearMemory();
+        }
     }
 
     public void loadFonts() {
@@ -66,7 +79,21 @@ public class App extends Application {
         }
     }
 
-    public void loadMemeNames() {
+    // Loads categories from the generated manifest, falls back to listing the assets
+    public synchronized void loadMemeNames() {
+        memeManifestEntries = new HashMap<>();
+        try {
+            memeCategories = MemeManifest.load(getAssets());
+            for (MemeCategory category : memeCategories) {
+                for (int i = 0; i < category.getImageCount(); i++) {
+                    memeManifestEntries.put(category.getImagePath(i), category.getEntry(i));
+                }
+            }
+            return;
+        } catch (IOException e) {
+            log("Could not load meme manifest, listing assets");
+        }
+
         String IMAGE_FOLDER = MemeLibConfig.getPath(MemeLibConfig.Assets.MEMES, false);
         try {
             String[] memeCategories = getAssets().list(IMAGE_FOLDER);
@@ -82,32 +109,65 @@ public class App extends Application {
         }
     }
 
+    private synchronized List<MemeCategory> getMemeCategories() {
+        if (memeCategories == null) {
+            loadMemeNames();
+        }
+        return memeCategories;
+    }
+
+    /**
+     * Get the manifest entry (dimensions, size, ...) of a meme template in the assets
+     *
+     * @param assetPath path of the template in the assets
+     * @return the entry, or null if not available
+     */
+    public synchronized MemeManifest.Entry getMemeManifestEntry(String assetPath) {
+        getMemeCategories();
+        return memeManifestEntries.get(assetPath);
+    }
+
+    /**
+     * Get the memes of a category, kept for the lifetime of the app
+     *
+     * @param category the category
+     * @return the memes of the category
+     */
+    public synchronized MemeOriginAssets getMemeOrigin(MemeCategory category) {
+        MemeOriginAssets origin = memeOrigins.get(category.getCategoryName());
+        if (origin == null) {
+            origin = new MemeOriginAssets(category, getAssets());
+            memeOrigins.put(category.getCategoryName(), origin);
+        }
+        return origin;
+    }
+
     public List<MemeFont> getFonts() {
         return this.fonts;
     }
 
     // Get meme category object (parameter = foldername in assets)
     public MemeCategory getMemeCategory(String category) {
-        for (MemeCategory cat : memeCategories) {
+        for (MemeCategory cat : getMemeCategories()) {
             if (cat.getCategoryName().equalsIgnoreCase(category))
                 return cat;
         }
         return null;
     }
 
-    public void shareBitmapToOtherApp(Bitmap bitmap, Activity activity) {
-        File imageFile = Helpers.get().saveBitmapToFile(getCacheDir().getAbsolutePath(), getString(R.string.cached_picture_filename), bitmap);
-        if (imageFile != null) {
-            Uri imageUri = FileProvider.getUriForFile(this, getString(R.string.app_fileprovider), imageFile);
-            if (imageUri != null) {
-                Intent shareIntent = new Intent();
-                shareIntent.setAction(Intent.ACTION_SEND);
-                shareIntent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
-                shareIntent.setDataAndType(imageUri, getContentResolver().getType(imageUri));
-                shareIntent.putExtra(Intent.EXTRA_STREAM, imageUri);
-                activity.startActivity(Intent.createChooser(shareIntent, getString(R.string.main__share_meme_prompt)));
-            }
-        }
+    /**
+     * Let the user pick an app to send the image to, see {@link MemeShareProvider}
+     *
+     * @param imageUri uri of the image, readable by other apps
+     * @param activity the activity to start the chooser from
+     */
+    public void shareImageToOtherApp(Uri imageUri, Activity activity) {
+        Intent shareIntent = new Intent();
+        shareIntent.setAction(Intent.ACTION_SEND);
+        shareIntent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        shareIntent.setDataAndType(imageUri, getContentResolver().getType(imageUri));
+        shareIntent.putExtra(Intent.EXTRA_STREAM, imageUri);
+        activity.startActivity(Intent.createChooser(shareIntent, getString(R.string.main__share_meme_prompt)));
     }
 
     public static void log(String text) {
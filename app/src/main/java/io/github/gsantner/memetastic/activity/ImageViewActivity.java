@@ -1,6 +1,7 @@
 package io.github.gsantner.memetastic.activity;
 
 import android.graphics.Bitmap;
+import android.net.Uri;
 import android.os.Bundle;
 import android.support.v7.app.ActionBar;
 import android.support.v7.app.AppCompatActivity;
@@ -16,7 +17,11 @@ import butterknife.ButterKnife;
 import butterknife.OnClick;
 import io.github.gsantner.memetastic.App;
 import io.github.gsantner.memetastic.R;
+import io.github.gsantner.memetastic.data.MemeLibConfig;
+import io.github.gsantner.memetastic.data.SavedMemesIndex;
 import io.github.gsantner.memetastic.util.Helpers;
+import io.github.gsantner.memetastic.util.ImageCache;
+import io.github.gsantner.memetastic.util.MemeShareProvider;
 
 public class ImageViewActivity extends AppCompatActivity {
     //########################
@@ -84,7 +89,11 @@ public class ImageViewActivity extends AppCompatActivity {
     public boolean onOptionsItemSelected(MenuItem item) {
         switch (item.getItemId()) {
             case R.id.action_share: {
-                app.shareBitmapToOtherApp(mBitmap, this);
+                // The saved file is shared as it is
+                Uri imageUri = MemeShareProvider.getUriForSavedFile(this, new File(imagePath));
+                if (imageUri != null) {
+                    app.shareImageToOtherApp(imageUri, this);
+                }
                 return true;
             }
 
@@ -94,6 +103,8 @@ public class ImageViewActivity extends AppCompatActivity {
                 if (file.exists()) {
                     file.delete();
                 }
+                File thumbnail = new File(SavedMemesIndex.get().getThumbnailDir(), file.getName());
+                ImageCache.get().remove(thumbnail.getAbsolutePath(), MemeLibConfig.MEME_SHOWCASE_GRID_MAX_IMAGESIZE);
                 return true;
             }
         }
@@ -38,10 +38,10 @@ import io.github.gsantner.memetastic.BuildConfig;
 import io.github.gsantner.memetastic.R;
 import io.github.gsantner.memetastic.data.MemeCategory;
 import io.github.gsantner.memetastic.data.MemeLibConfig;
-import io.github.gsantner.memetastic.data.MemeOriginAssets;
 import io.github.gsantner.memetastic.data.MemeOriginFavorite;
 import io.github.gsantner.memetastic.data.MemeOriginInterface;
 import io.github.gsantner.memetastic.data.MemeOriginStorage;
+import io.github.gsantner.memetastic.data.SavedMemesIndex;
 import io.github.gsantner.memetastic.ui.GridDecoration;
 import io.github.gsantner.memetastic.ui.GridRecycleAdapter;
 import io.github.gsantner.memetastic.util.Helpers;
@@ -72,6 +72,7 @@ public class MainActivity extends AppCompatActivity
     RecyclerView recyclerMemeList;
 
     App app;
+    private GridRecycleAdapter recyclerMemeAdapter = null;
     private MemeCategory mMemeCategory = null;
     private String cameraPictureFilepath = "";
 
@@ -93,9 +94,7 @@ public class MainActivity extends AppCompatActivity
         tabLayout.setOnTabSelectedListener(this);
 
         // Setup Floating Action Button
-        int gridColumns = Helpers.get().isInPortraitMode()
-                ? app.settings.getGridColumnCountPortrait()
-                : app.settings.getGridColumnCountLandscape();
+        int gridColumns = app.settings.getGridColumnCount();
 
         recyclerMemeList.setHasFixedSize(true);
         RecyclerView.LayoutManager recyclerGridLayout = new GridLayoutManager(this, gridColumns);
@@ -242,7 +241,7 @@ public class MainActivity extends AppCompatActivity
             }
 
             case R.id.action_mode_create: {
-                memeOriginObject = new MemeOriginAssets(mMemeCategory, getAssets());
+                memeOriginObject = app.getMemeOrigin(mMemeCategory);
                 toolbar.setTitle(R.string.app_name);
                 break;
             }
@@ -252,9 +251,7 @@ public class MainActivity extends AppCompatActivity
                 break;
             }
             case R.id.action_mode_saved: {
-                File filePath = new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES), getString(R.string.app_name));
-                filePath.mkdirs();
-                memeOriginObject = new MemeOriginStorage(filePath, getString(R.string.dot_thumbnails));
+                memeOriginObject = new MemeOriginStorage(SavedMemesIndex.get());
                 toolbar.setTitle(R.string.main__mode__saved);
                 break;
             }
@@ -264,8 +261,7 @@ public class MainActivity extends AppCompatActivity
         if (memeOriginObject != null) {
             tabLayout.setVisibility(item.getItemId() == R.id.action_mode_create ? View.VISIBLE : View.GONE);
             drawer.closeDrawers();
-            GridRecycleAdapter recyclerMemeAdapter = new GridRecycleAdapter(memeOriginObject, this);
-            recyclerMemeList.setAdapter(recyclerMemeAdapter);
+            showMemes(memeOriginObject);
             return true;
         }
 
@@ -364,10 +360,36 @@ public class MainActivity extends AppCompatActivity
         int tabPos = tab.getPosition();
         if (tabPos >= 0 && tabPos < MemeLibConfig.MEME_CATEGORIES.ALL.length) {
             mMemeCategory = app.getMemeCategory(MemeLibConfig.MEME_CATEGORIES.ALL[tabPos]);
-            MemeOriginInterface memeOriginObject = new MemeOriginAssets(mMemeCategory, getAssets());
-            GridRecycleAdapter recyclerMemeAdapter = new GridRecycleAdapter(memeOriginObject, this);
-            recyclerMemeList.setAdapter(recyclerMemeAdapter);
+            showMemes(app.getMemeOrigin(mMemeCategory));
             app.settings.setLastSelectedCategory(MemeLibConfig.getIndexOfCategory(mMemeCategory.getCategoryName()));
+            prefetchAdjacentTabs(tabPos);
+        }
+    }
+
+    // The adapter lives as long as the activity and only swaps its data
+    private void showMemes(MemeOriginInterface memeOriginObject) {
+        if (recyclerMemeAdapter == null) {
+            recyclerMemeAdapter = new GridRecycleAdapter(memeOriginObject, this);
+            recyclerMemeList.setAdapter(recyclerMemeAdapter);
+        } else {
+            recyclerMemeAdapter.setMemeObject(memeOriginObject);
+            recyclerMemeList.scrollToPosition(0);
+        }
+    }
+
+    // Loads the first screen of the neighbour tabs, so swiping to them shows images immediately
+    private void prefetchAdjacentTabs(int tabPos) {
+        int columns = app.settings.getGridColumnCount();
+        int rows = recyclerMemeList.getWidth() > 0
+                ? recyclerMemeList.getHeight() / (recyclerMemeList.getWidth() / columns) + 1
+                : GridRecycleAdapter.PREFETCH_ROWS;
+        for (int adjacent : new int[]{tabPos - 1, tabPos + 1}) {
+            if (adjacent >= 0 && adjacent < MemeLibConfig.MEME_CATEGORIES.ALL.length) {
+                MemeCategory category = app.getMemeCategory(MemeLibConfig.MEME_CATEGORIES.ALL[adjacent]);
+                if (category != null) {
+                    GridRecycleAdapter.prefetch(app.getMemeOrigin(category), 0, rows * columns);
+                }
+            }
         }
     }
 
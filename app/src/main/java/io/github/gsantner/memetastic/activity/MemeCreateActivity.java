@@ -4,25 +4,15 @@ import android.app.AlertDialog;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import android.graphics.Canvas;
-import android.graphics.Matrix;
-import android.graphics.Paint;
-import android.graphics.Rect;
 import android.net.Uri;
 import android.os.Bundle;
-import android.os.Environment;
 import android.os.Handler;
-import android.provider.MediaStore;
 import android.support.design.widget.FloatingActionButton;
 import android.support.design.widget.Snackbar;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.Toolbar;
-import android.text.Layout;
-import android.text.StaticLayout;
-import android.text.TextPaint;
 import android.util.Base64;
 import android.view.LayoutInflater;
 import android.view.Menu;
@@ -41,6 +31,7 @@ import com.flipboard.bottomsheet.BottomSheetLayout;
 import com.flipboard.bottomsheet.OnSheetDismissedListener;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Method;
@@ -52,12 +43,17 @@ import butterknife.ButterKnife;
 import butterknife.OnClick;
 import butterknife.OnTextChanged;
 import io.github.gsantner.memetastic.App;
+import io.github.gsantner.memetastic.BuildConfig;
 import io.github.gsantner.memetastic.R;
 import io.github.gsantner.memetastic.data.MemeFont;
 import io.github.gsantner.memetastic.data.MemeLibConfig;
 import io.github.gsantner.memetastic.data.MemeSetting;
 import io.github.gsantner.memetastic.ui.FontAdapter;
 import io.github.gsantner.memetastic.util.Helpers;
+import io.github.gsantner.memetastic.util.MemeExporter;
+import io.github.gsantner.memetastic.util.MemeRenderScheduler;
+import io.github.gsantner.memetastic.util.MemeSaveQueue;
+import io.github.gsantner.memetastic.util.MemeShareProvider;
 import io.github.gsantner.opoc.util.HelpersA;
 import uz.shift.colorpicker.LineColorPicker;
 
@@ -65,7 +61,7 @@ import uz.shift.colorpicker.LineColorPicker;
  * Activity for creating memes
  */
 public class MemeCreateActivity extends AppCompatActivity
-        implements MemeSetting.OnMemeSettingChangedListener,
+        implements MemeRenderScheduler.OnFrameRenderedListener,
         BottomSheetLayout.OnSheetStateChangeListener, OnSheetDismissedListener {
     //########################
     //## Static
@@ -102,7 +98,11 @@ public class MemeCreateActivity extends AppCompatActivity
     //#####################
     private static boolean doubleBackToExitPressedOnce = false;
     private Bitmap lastBitmap = null;
+    private MemeRenderScheduler renderScheduler;
     private long memeSavetime = -1;
+    private boolean autoSavePending = false;
+    // After a failed auto save, back needs to be pressed twice like without auto save
+    private boolean autoSaveFailed = false;
     private App app;
     private MemeSetting memeSetting;
     private boolean bFullscreenImage = true;
@@ -140,7 +140,9 @@ public class MemeCreateActivity extends AppCompatActivity
     }
 
     public void initMemeSettings(Bundle savedInstanceState) {
-        Bitmap bitmap = extractBitmapFromIntent(getIntent());
+        // Editing works on a downscaled preview, exports decode the source again
+        int previewSize = Math.min(app.settings.getRenderQualityReal(), MemeLibConfig.MEME_FULLSCREEN_IMAGESIZE);
+        Bitmap bitmap = extractBitmapFromIntent(getIntent(), previewSize, Bitmap.Config.RGB_565);
         if (savedInstanceState != null && savedInstanceState.containsKey("memeObj")) {
             memeSetting = (MemeSetting) savedInstanceState.getSerializable("memeObj");
             memeSetting.setImage(bitmap);
@@ -149,11 +151,12 @@ public class MemeCreateActivity extends AppCompatActivity
             memeSetting = new MemeSetting(app.getFonts().get(app.settings.getLastSelectedFont()), bitmap);
             memeSetting.setFontId(app.settings.getLastSelectedFont());
         }
-        memeSetting.setDisplayImage(memeSetting.getImage().copy(Bitmap.Config.RGB_565, false));
+        memeSetting.setDisplayImage(memeSetting.getImage());
 
         textEditTopCaption.setText(memeSetting.getCaptionTop());
         textEditBottomCaption.setText(memeSetting.getCaptionBottom());
-        memeSetting.setMemeSettingChangedListener(this);
+        renderScheduler = new MemeRenderScheduler(this);
+        memeSetting.setMemeSettingChangedListener(renderScheduler);
         memeSetting.notifyChangedListener();
     }
 
@@ -168,8 +171,10 @@ public class MemeCreateActivity extends AppCompatActivity
     private void prepareForSaving() {
         memeSetting.setMemeSettingChangedListener(null);
         imageEditView.setImageBitmap(null);
-        if (lastBitmap != null && !lastBitmap.isRecycled())
-            lastBitmap.recycle();
+        if (renderScheduler != null) {
+            renderScheduler.release();
+            renderScheduler = null;
+        }
         if (memeSetting.getImage() != null && !memeSetting.getImage().isRecycled())
             memeSetting.getImage().recycle();
         if (memeSetting.getDisplayImage() != null && !memeSetting.getDisplayImage().isRecycled())
@@ -213,40 +218,24 @@ public class MemeCreateActivity extends AppCompatActivity
         }
     }
 
-    private Bitmap extractBitmapFromIntent(final Intent intent) {
+    private Bitmap extractBitmapFromIntent(final Intent intent, int maxSize, Bitmap.Config config) {
         final BitmapFactory.Options options = new BitmapFactory.Options();
         options.inJustDecodeBounds = true;
+        options.inPreferredConfig = config;
         Bitmap bitmap = null;
         String imagePath = getIntent().getStringExtra(EXTRA_IMAGE_PATH);
         App.log("imagepath::" + imagePath);
         if (intent.getAction() != null && intent.getAction().equals(Intent.ACTION_SEND) && intent.getType().startsWith("image/")) {
             Uri imageURI = intent.getParcelableExtra(Intent.EXTRA_STREAM);
             if (imageURI != null) {
-                try {
-                    bitmap = MediaStore.Images.Media.getBitmap(getContentResolver(), imageURI);
-                } catch (IOException e) {
-                    bitmap = null;
-                    e.printStackTrace();
-                }
+                bitmap = Helpers.get().loadImageFromUri(imageURI, maxSize, config);
             }
         } else if (intent.getBooleanExtra(ASSET_IMAGE, false)) {
-            try {
-                //Scale big images down to avoid "out of memory"
-                InputStream inputStream = getAssets().open(imagePath);
-                BitmapFactory.decodeStream(inputStream, new Rect(0, 0, 0, 0), options);
-                options.inSampleSize = Helpers.get().calculateInSampleSize(options, app.settings.getRenderQualityReal());
-                options.inJustDecodeBounds = false;
-                inputStream.close();
-                inputStream = getAssets().open(imagePath);
-                bitmap = BitmapFactory.decodeStream(inputStream, new Rect(0, 0, 0, 0), options);
-            } catch (IOException e) {
-                bitmap = null;
-                e.printStackTrace();
-            }
+            bitmap = Helpers.get().loadImageFromAssets(imagePath, maxSize, config);
         } else {
             //Scale big images down to avoid "out of memory"
             BitmapFactory.decodeFile(imagePath, options);
-            options.inSampleSize = Helpers.get().calculateInSampleSize(options, app.settings.getRenderQualityReal());
+            options.inSampleSize = Helpers.get().calculateInSampleSize(options, maxSize);
             options.inJustDecodeBounds = false;
             bitmap = BitmapFactory.decodeFile(imagePath, options);
         }
@@ -264,11 +253,13 @@ public class MemeCreateActivity extends AppCompatActivity
         }
 
         // Auto save if option checked
-        if (hasTextInput && app.settings.isAutoSaveMeme()) {
-            if (saveMemeToFilesystem(false)) {
-                finish();
-                return;
+        if (hasTextInput && app.settings.isAutoSaveMeme() && !autoSaveFailed) {
+            // Closes when the meme is saved, the UI is not blocked meanwhile
+            if (!autoSavePending) {
+                autoSavePending = true;
+                saveMemeToFilesystem(false, true);
             }
+            return;
         }
 
         // Close if no input
@@ -320,40 +311,137 @@ public class MemeCreateActivity extends AppCompatActivity
 
         switch (item.getItemId()) {
             case R.id.action_share: {
-                app.shareBitmapToOtherApp(lastBitmap, this);
+                shareMeme();
                 return true;
             }
             case R.id.action_save: {
-                saveMemeToFilesystem(true);
+                saveMemeToFilesystem(true, false);
                 return true;
             }
         }
         return super.onOptionsItemSelected(item);
     }
 
-    private boolean saveMemeToFilesystem(boolean showDialog) {
-        String filepath = new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES), getString(R.string.app_name)).getAbsolutePath();
-        String thumbnailPath = new File(filepath, getString(R.string.dot_thumbnails)).getAbsolutePath();
+    // A saved meme is shared as it is, others are rendered when the other app reads them.
+    // The index is read on the save thread, not here on the UI thread
+    private void shareMeme() {
+        final MemeSaveQueue.Renderer renderer = snapshotMemeForExport();
+        MemeSaveQueue.get().findSaved(renderer, new MemeSaveQueue.OnSavedMemeFoundListener() {
+            @Override
+            public void onSavedMemeFound(File file) {
+                if (isFinishing()) {
+                    return;
+                }
+                Uri imageUri = file != null ? MemeShareProvider.getUriForSavedFile(MemeCreateActivity.this, file) : null;
+                if (imageUri == null) {
+                    String filename = String.format(Locale.getDefault(), "%s_%d.jpg", getString(R.string.app_name), System.currentTimeMillis());
+                    imageUri = MemeShareProvider.getUriForRenderer(MemeCreateActivity.this, filename, renderer);
+                }
+                app.shareImageToOtherApp(imageUri, MemeCreateActivity.this);
+            }
+        });
+    }
+
+    private void saveMemeToFilesystem(final boolean showDialog, final boolean finishWhenSaved) {
         if (memeSavetime < 0) {
             memeSavetime = System.currentTimeMillis();
         }
 
         String filename = String.format(Locale.getDefault(), "%s_%d.jpg", getString(R.string.app_name), memeSavetime);
-        boolean wasSaved = Helpers.get().saveBitmapToFile(filepath, filename, lastBitmap) != null && Helpers.get().saveBitmapToFile(thumbnailPath, filename, Helpers.get().createThumbnail(lastBitmap)) != null;
-        if (wasSaved && showDialog) {
-
-            AlertDialog.Builder dialog = new AlertDialog.Builder(this);
-            dialog.setTitle(R.string.creator__saved_successfully)
-                    .setMessage(R.string.creator__saved_successfully_message)
-                    .setNegativeButton(R.string.creator__no_keep_editing, null)
-                    .setPositiveButton(R.string.main__yes, new DialogInterface.OnClickListener() {
-                        public void onClick(DialogInterface dialog, int which) {
-                            finish();
-                        }
-                    });
-            dialog.show();
-        }
-        return wasSaved;
+        MemeSaveQueue.get().save(filename, snapshotMemeForExport(), new MemeSaveQueue.OnMemeSavedListener() {
+            @Override
+            public void onMemeSaved(String filename, boolean success) {
+                autoSavePending = false;
+                if (finishWhenSaved) {
+                    autoSaveFailed = !success;
+                }
+                if (isFinishing()) {
+                    return;
+                }
+                if (!success) {
+                    Snackbar.make(findViewById(android.R.id.content), R.string.creator__save_failed, Snackbar.LENGTH_LONG).show();
+                    return;
+                }
+                if (finishWhenSaved) {
+                    finish();
+                    return;
+                }
+                if (!showDialog) {
+                    return;
+                }
+                AlertDialog.Builder dialog = new AlertDialog.Builder(MemeCreateActivity.this);
+                dialog.setTitle(R.string.creator__saved_successfully)
+                        .setMessage(R.string.creator__saved_successfully_message)
+                        .setNegativeButton(R.string.creator__no_keep_editing, null)
+                        .setPositiveButton(R.string.main__yes, new DialogInterface.OnClickListener() {
+                            public void onClick(DialogInterface dialog, int which) {
+                                finish();
+                            }
+                        });
+                dialog.show();
+            }
+        });
+    }
+
+    /**
+     * Takes a snapshot of the current meme, which can be rendered on another thread
+     * and after the activity is gone
+     *
+     * @return renderer of the meme in export quality
+     */
+    private MemeSaveQueue.Renderer snapshotMemeForExport() {
+        final Intent intent = getIntent();
+        final MemeSetting snapshot = memeSetting.copy();
+        final MemeExporter.Source source = getImageSource(intent);
+        final int maxSize = app.settings.getRenderQualityReal();
+        return new MemeSaveQueue.Renderer() {
+            public Bitmap render() {
+                int sourceRotationDeg = 0;
+                if (Intent.ACTION_SEND.equals(intent.getAction())) {
+                    Uri imageURI = intent.getParcelableExtra(Intent.EXTRA_STREAM);
+                    sourceRotationDeg = imageURI != null ? Helpers.get().getExifRotation(imageURI) : 0;
+                }
+                return new MemeExporter().export(source, snapshot, sourceRotationDeg, maxSize);
+            }
+
+            public String getContentHash() {
+                // Identifies the content of the source, a path or uri can be reused for another image
+                String sourceId;
+                if (Intent.ACTION_SEND.equals(intent.getAction())) {
+                    sourceId = Helpers.get().md5(source);
+                    if (sourceId == null) {
+                        return null;
+                    }
+                } else if (intent.getBooleanExtra(ASSET_IMAGE, false)) {
+                    // Assets only change with the app
+                    sourceId = "asset:" + BuildConfig.VERSION_CODE + ":" + intent.getStringExtra(EXTRA_IMAGE_PATH);
+                } else {
+                    File file = new File(intent.getStringExtra(EXTRA_IMAGE_PATH));
+                    sourceId = "file:" + file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified();
+                }
+                return Helpers.get().md5(sourceId + "|" + maxSize + "|" + snapshot.getContentKey());
+            }
+        };
+    }
+
+    // Opens the image that was passed to the activity
+    private MemeExporter.Source getImageSource(final Intent intent) {
+        final String imagePath = intent.getStringExtra(EXTRA_IMAGE_PATH);
+        return new MemeExporter.Source() {
+            public InputStream open() throws IOException {
+                if (intent.getAction() != null && intent.getAction().equals(Intent.ACTION_SEND) && intent.getType().startsWith("image/")) {
+                    Uri imageURI = intent.getParcelableExtra(Intent.EXTRA_STREAM);
+                    InputStream is = imageURI != null ? app.getContentResolver().openInputStream(imageURI) : null;
+                    if (is == null) {
+                        throw new IOException("Cannot open " + imageURI);
+                    }
+                    return is;
+                } else if (intent.getBooleanExtra(ASSET_IMAGE, false)) {
+                    return app.getAssets().open(imagePath);
+                }
+                return new FileInputStream(imagePath);
+            }
+        };
     }
 
     @OnClick(R.id.fab)
@@ -434,89 +522,6 @@ public class MemeCreateActivity extends AppCompatActivity
         });
     }
 
-    public Bitmap drawMultilineTextToBitmap(Context c, MemeSetting memeSetting) {
-        // prepare canvas
-        Resources resources = c.getResources();
-        Bitmap bitmap = memeSetting.getDisplayImage();
-
-        if (memeSetting.getRotationDeg() != 0) {
-            Matrix matrix = new Matrix();
-            matrix.postRotate(memeSetting.getRotationDeg());
-            bitmap = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
-        }
-
-        float scale = Helpers.get().getScalingFactorInPixelsForWritingOnPicture(bitmap.getWidth(), bitmap.getHeight());
-        float borderScale = scale * memeSetting.getFontSize() / MemeLibConfig.FONT_SIZES.DEFAULT;
-        Bitmap.Config bitmapConfig = bitmap.getConfig();
-        // set default bitmap config if none
-        if (bitmapConfig == null) {
-            bitmapConfig = Bitmap.Config.RGB_565;
-        }
-        // resource bitmaps are immutable,
-        // so we need to convert it to mutable one
-        bitmap = bitmap.copy(bitmapConfig, true);
-        Canvas canvas = new Canvas(bitmap);
-
-        // new antialiased Paint
-        TextPaint paint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
-        paint.setTextSize((int) (memeSetting.getFontSize() * scale));
-        paint.setTypeface(memeSetting.getFont().getFont());
-        //paint.setStrokeWidth(memeSetting.getFontSize() / 4);
-        paint.setStrokeWidth(borderScale);
-
-        String[] textStrings = {memeSetting.getCaptionTop(), memeSetting.getCaptionBottom()};
-        if (memeSetting.isAllCaps()) {
-            for (int i = 0; i < textStrings.length; i++) {
-                textStrings[i] = textStrings[i].toUpperCase();
-            }
-        }
-
-        for (int i = 0; i < textStrings.length; i++) {
-            paint.setColor(memeSetting.getBorderColor());
-            paint.setStyle(Paint.Style.FILL_AND_STROKE);
-
-            // set text width to canvas width minus 16dp padding
-            int textWidth = canvas.getWidth() - (int) (16 * scale);
-
-            // init StaticLayout for text
-            StaticLayout textLayout = new StaticLayout(
-                    textStrings[i], paint, textWidth, Layout.Alignment.ALIGN_CENTER, 1.0f, 0.0f, false);
-
-            // get height of multiline text
-            int textHeight = textLayout.getHeight();
-
-            // get position of text's top left corner  center: (bitmap.getWidth() - textWidth)/2
-            float x = (bitmap.getWidth() - textWidth) / 2;
-            float y = 0;
-            if (i == 0)
-                y = bitmap.getHeight() / 15;
-            else
-                y = bitmap.getHeight() - textHeight;
-
-            // draw text to the Canvas center
-            canvas.save();
-            canvas.translate(x, y);
-            textLayout.draw(canvas);
-
-            // new antialiased Paint
-            paint.setColor(memeSetting.getTextColor());
-            paint.setStyle(Paint.Style.FILL);
-
-            // init StaticLayout for text
-            textLayout = new StaticLayout(
-                    textStrings[i], paint, textWidth, Layout.Alignment.ALIGN_CENTER, 1.0f, 0.0f, false);
-
-            // get height of multiline text
-            textHeight = textLayout.getHeight();
-
-            // draw text to the Canvas center
-            textLayout.draw(canvas);
-            canvas.restore();
-        }
-
-        return bitmap;
-    }
-
     @OnTextChanged(value = R.id.memecreate__activity__edit_caption_bottom, callback = OnTextChanged.Callback.TEXT_CHANGED)
     public void onCaptionBottomChanged(CharSequence text) {
         memeSetting.setCaptionBottom(text.toString());
@@ -528,13 +533,9 @@ public class MemeCreateActivity extends AppCompatActivity
     }
 
     @Override
-    public void onMemeSettingChanged(MemeSetting memeSetting) {
-        imageEditView.setImageBitmap(null);
-        if (lastBitmap != null)
-            lastBitmap.recycle();
-        Bitmap bmp = drawMultilineTextToBitmap(this, memeSetting);
-        imageEditView.setImageBitmap(bmp);
-        lastBitmap = bmp;
+    public void onFrameRendered(Bitmap bitmap) {
+        lastBitmap = bitmap;
+        imageEditView.setImageBitmap(lastBitmap);
     }
 
     @Override
@@ -4,6 +4,8 @@ import android.app.FragmentTransaction;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.preference.Preference;
 import android.preference.PreferenceFragment;
 import android.preference.PreferenceScreen;
@@ -11,6 +13,7 @@ import android.support.design.widget.AppBarLayout;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.Toolbar;
 import android.view.View;
+import android.widget.Toast;
 
 import butterknife.BindView;
 import butterknife.ButterKnife;
@@ -113,7 +116,23 @@ public class SettingsActivity extends AppCompatActivity implements SharedPrefere
                 String key = preference.getKey();
 
                 if (key.equals(getString(R.string.pref_key__cleanup_thumbnails))) {
-                    new ThumbnailCleanupTask(context).start();
+                    final Context appContext = context;
+                    new ThumbnailCleanupTask(context).setListener(new ThumbnailCleanupTask.OnProgressListener() {
+                        @Override
+                        public void onProgress(int done, int total) {
+                        }
+
+                        @Override
+                        public void onFinished(final int created, final int failed, final int deleted) {
+                            new Handler(Looper.getMainLooper()).post(new Runnable() {
+                                @Override
+                                public void run() {
+                                    Toast.makeText(appContext, appContext.getString(R.string.settings__cleanup_thumbnails_finished,
+                                            created, failed, deleted), Toast.LENGTH_SHORT).show();
+                                }
+                            });
+                        }
+                    }).start();
                     return true;
                 }
             }
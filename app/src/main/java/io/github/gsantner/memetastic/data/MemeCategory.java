@@ -2,7 +2,6 @@ package io.github.gsantner.memetastic.data;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -12,6 +11,7 @@ import java.util.List;
 public class MemeCategory {
     private final String categoryName;
     private String[] imageNames;
+    private MemeManifest.Entry[] entries;
 
     /**
      * Constructor that takes and saves the category name and the memes
@@ -24,6 +24,21 @@ public class MemeCategory {
         this.imageNames = imageNames;
     }
 
+    /**
+     * Constructor that takes the category name and the memes as listed in the manifest
+     *
+     * @param categoryName name of the category of the memes
+     * @param entries      manifest entries of the memes
+     */
+    public MemeCategory(String categoryName, MemeManifest.Entry[] entries) {
+        this.categoryName = categoryName;
+        this.entries = entries;
+        imageNames = new String[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            imageNames[i] = entries[i].filename;
+        }
+    }
+
     /**
      * gets and returns the name of the category
      *
@@ -60,10 +75,40 @@ public class MemeCategory {
         return getFolderPath(true) + imageNames[position];
     }
 
+    /**
+     * gets the count of memes in this category
+     *
+     * @return the count of memes
+     */
+    public int getImageCount() {
+        return imageNames.length;
+    }
+
+    /**
+     * gets the manifest entry (dimensions, size, ...) of a specific meme of this category
+     *
+     * @param position the position of the meme in the array of memes of this category
+     * @return the entry, or null if the category was not loaded from the manifest
+     */
+    public MemeManifest.Entry getEntry(int position) {
+        return entries != null ? entries[position] : null;
+    }
 
     public void shuffleList() {
-        List<String> l = new ArrayList<String>(Arrays.asList(imageNames));
-        Collections.shuffle(l);
-        imageNames = l.toArray(new String[l.size()]);
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < imageNames.length; i++) {
+            order.add(i);
+        }
+        Collections.shuffle(order);
+        String[] names = new String[imageNames.length];
+        MemeManifest.Entry[] shuffledEntries = entries != null ? new MemeManifest.Entry[entries.length] : null;
+        for (int i = 0; i < order.size(); i++) {
+            names[i] = imageNames[order.get(i)];
+            if (shuffledEntries != null) {
+                shuffledEntries[i] = entries[order.get(i)];
+            }
+        }
+        imageNames = names;
+        entries = shuffledEntries;
     }
 }
@@ -2,6 +2,8 @@ package io.github.gsantner.memetastic.data;
 
 import java.io.File;
 
+import io.github.gsantner.memetastic.BuildConfig;
+
 /**
  * Contains colors, fontsizes, categorynames and folders where fonts and memetemplates are saved
  */
@@ -55,8 +57,11 @@ public class MemeLibConfig {
         return 0;
     }
 
-    public static final int MEME_SHOWCASE_GRID_MAX_IMAGESIZE = 400;
+    // Defined in app/build.gradle, the template thumbnails are packed at this size
+    public static final int MEME_SHOWCASE_GRID_MAX_IMAGESIZE = BuildConfig.MEME_SHOWCASE_GRID_MAX_IMAGESIZE;
     public static final int MEME_FULLSCREEN_IMAGESIZE = 1000;
+    // Shorter side of the thumbnails of saved memes
+    public static final int MEME_THUMBNAIL_SIZE = 300;
 
 
     /**
@@ -0,0 +1,96 @@
+package io.github.gsantner.memetastic.data;
+
+import android.content.res.AssetManager;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the manifest of the meme templates in the assets, which is generated at build time
+ * by the generateMemeManifest task (see app/build.gradle), together with a thumbnail pack
+ * per category that contains the pre-scaled JPEG thumbnails of all templates back to back
+ */
+public class MemeManifest {
+    public static final String FILENAME = "memes.manifest";
+    public static final String THUMBNAIL_PACK_DIR = "thumbnails";
+    public static final String THUMBNAIL_PACK_EXT = ".thumbpack";
+    private static final int MAGIC = 0x4D454D45;
+    private static final int VERSION = 2;
+
+    /**
+     * Information about a single meme template
+     */
+    public static class Entry {
+        public final String filename;
+        public final int width;
+        public final int height;
+        public final long byteSize;
+        public final long hash;
+        public final int dominantColor;
+        public final String thumbnailPack;
+        public final long thumbnailOffset;
+        public final int thumbnailLength;
+
+        public Entry(String filename, int width, int height, long byteSize, long hash, int dominantColor,
+                     String thumbnailPack, long thumbnailOffset, int thumbnailLength) {
+            this.filename = filename;
+            this.width = width;
+            this.height = height;
+            this.byteSize = byteSize;
+            this.hash = hash;
+            this.dominantColor = dominantColor;
+            this.thumbnailPack = thumbnailPack;
+            this.thumbnailOffset = thumbnailOffset;
+            this.thumbnailLength = thumbnailLength;
+        }
+
+        public boolean hasThumbnail() {
+            return thumbnailLength > 0;
+        }
+    }
+
+    /**
+     * Get the path of the thumbnail pack of a category inside the assets
+     *
+     * @param categoryName name of the category
+     * @return the path to the thumbnail pack
+     */
+    public static String getThumbnailPackPath(String categoryName) {
+        return THUMBNAIL_PACK_DIR + "/" + categoryName + THUMBNAIL_PACK_EXT;
+    }
+
+    /**
+     * Loads all meme categories and their templates from the manifest
+     *
+     * @param assetManager the asset manager of the app
+     * @return the categories
+     * @throws IOException if the manifest is missing or invalid
+     */
+    public static List<MemeCategory> load(AssetManager assetManager) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(assetManager.open(FILENAME)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Unsupported meme manifest");
+            }
+            int categoryCount = in.readInt();
+            List<MemeCategory> categories = new ArrayList<>(categoryCount);
+            for (int c = 0; c < categoryCount; c++) {
+                String categoryName = in.readUTF();
+                String thumbnailPack = getThumbnailPackPath(categoryName);
+                Entry[] entries = new Entry[in.readInt()];
+                for (int i = 0; i < entries.length; i++) {
+                    entries[i] = new Entry(in.readUTF(), in.readInt(), in.readInt(),
+                            in.readLong(), in.readLong(), in.readInt(),
+                            thumbnailPack, in.readLong(), in.readInt());
+                }
+                categories.add(new MemeCategory(categoryName, entries));
+            }
+            return categories;
+        } finally {
+            in.close();
+        }
+    }
+}
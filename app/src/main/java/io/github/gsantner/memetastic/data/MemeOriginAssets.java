@@ -15,7 +15,7 @@ public class MemeOriginAssets implements MemeOriginInterface {
 
     /**
      * Constructor that takes and saves the meme category, an instance of the asset manager
-     * and calculates the length of the available memes
+     * and the length of the available memes
      *
      * @param memeCategory the category of the memes
      * @param assetManager the asset manager which will be used to load the memes of the category
@@ -24,11 +24,7 @@ public class MemeOriginAssets implements MemeOriginInterface {
         mMemeCategory = memeCategory;
         mAssetManager = assetManager;
         if (mMemeCategory != null) {
-            try {
-                length = mAssetManager.list(mMemeCategory.getFolderPath(false)).length;
-            } catch (IOException e) {
-                length = 0;
-            }
+            length = mMemeCategory.getImageCount();
         }
     }
 
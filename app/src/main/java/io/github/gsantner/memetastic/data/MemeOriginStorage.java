@@ -1,51 +1,37 @@
 package io.github.gsantner.memetastic.data;
 
 import java.io.File;
-import java.io.FilenameFilter;
-import java.util.Arrays;
-import java.util.Comparator;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
  * Handles the already created memes (loading, count of memes, etc.) that are stored in the pictures folder
  */
 public class MemeOriginStorage implements MemeOriginInterface {
-    private File[] mFiles;
+    private List<SavedMemesIndex.Entry> mEntries = new ArrayList<>();
     private String mFilePath;
     private String mThumbnailPath;
     private Map<String, String> mMissingThumbnails = new HashMap<>();
-    private int mLength;
 
     /**
-     * Constructor that takes the path to the created memes and path to the thumbnail folder of the created memes
+     * Constructor that takes the index of the created memes. Only memes which have a thumbnail are shown,
+     * the others are collected as missing thumbnails
      *
-     * @param folderPathContainingPics path to the already created memes
-     * @param subfolderThumbnails      path to the thumbnails of the created memes
+     * @param index the index of the created memes
      */
-    public MemeOriginStorage(File folderPathContainingPics, final String subfolderThumbnails) {
-        mFilePath = folderPathContainingPics.getAbsolutePath();
-        mFiles = folderPathContainingPics.listFiles(new FilenameFilter() {
-            @Override
-            public boolean accept(File dir, String filename) {
-                File thumbnailFile = new File(new File(dir, subfolderThumbnails), filename);
-                File memeFile = new File(dir, filename);
-                boolean ok = thumbnailFile.isFile() && memeFile.isFile();
-                if (memeFile.isFile() && !thumbnailFile.exists()) {
-                    mMissingThumbnails.put(memeFile.getAbsolutePath(), thumbnailFile.getAbsolutePath());
-                }
-
-                return ok;
-            }
-        });
-        Arrays.sort(mFiles, new Comparator<File>() {
-            @Override
-            public int compare(File f1, File f2) {
-                return (int) (f2.lastModified() - f1.lastModified());
+    public MemeOriginStorage(SavedMemesIndex index) {
+        mFilePath = index.getPictureDir().getAbsolutePath();
+        mThumbnailPath = index.getThumbnailDir().getName();
+        for (SavedMemesIndex.Entry entry : index.getEntries()) {
+            if (entry.hasThumbnail) {
+                mEntries.add(entry);
+            } else {
+                mMissingThumbnails.put(new File(index.getPictureDir(), entry.name).getAbsolutePath(),
+                        new File(index.getThumbnailDir(), entry.name).getAbsolutePath());
             }
-        });
-        mThumbnailPath = subfolderThumbnails;
-        mLength = mFiles.length;
+        }
     }
 
     @Override
@@ -57,7 +43,7 @@ public class MemeOriginStorage implements MemeOriginInterface {
 
     @Override
     public int getLength() {
-        return mLength;
+        return mEntries.size();
     }
 
     @Override
@@ -67,12 +53,12 @@ public class MemeOriginStorage implements MemeOriginInterface {
 
     @Override
     public String getFilepath(int position) {
-        return mFilePath + File.separator + mFiles[position].getName();
+        return mFilePath + File.separator + mEntries.get(position).name;
     }
 
     @Override
     public String getThumbnailPath(int position) {
-        return mFilePath + File.separator + mThumbnailPath + File.separator + mFiles[position].getName();
+        return mFilePath + File.separator + mThumbnailPath + File.separator + mEntries.get(position).name;
     }
 
     @Override
@@ -83,4 +69,4 @@ public class MemeOriginStorage implements MemeOriginInterface {
     public Map<String, String> getMissingThumbnails() {
         return mMissingThumbnails;
     }
-}
\ No newline at end of file
+}
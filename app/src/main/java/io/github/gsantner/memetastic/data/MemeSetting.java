@@ -4,6 +4,8 @@ import android.graphics.Bitmap;
 
 import java.io.Serializable;
 
+import io.github.gsantner.memetastic.util.Helpers;
+
 /**
  * A memes settings
  */
@@ -14,6 +16,7 @@ public class MemeSetting implements Serializable {
 
     private OnMemeSettingChangedListener memeSettingChangedListener;
     private Bitmap displayImage;
+    private transient RotatedImage rotatedDisplayImage = new RotatedImage();
     private int fontId;
     private MemeFont font;
     private Bitmap image;
@@ -38,6 +41,38 @@ public class MemeSetting implements Serializable {
         this.font = font;
     }
 
+    /**
+     * Creates a copy of the settings without listener, so it can be handed over to another thread
+     *
+     * @return the copy
+     */
+    public MemeSetting copy() {
+        MemeSetting copy = new MemeSetting(font, image);
+        copy.displayImage = displayImage;
+        copy.rotatedDisplayImage = rotatedDisplayImage;
+        copy.fontId = fontId;
+        copy.rotationDeg = rotationDeg;
+        copy.fontSize = fontSize;
+        copy.textColor = textColor;
+        copy.borderColor = borderColor;
+        copy.allCaps = allCaps;
+        copy.captionTop = captionTop;
+        copy.captionBottom = captionBottom;
+        return copy;
+    }
+
+    /**
+     * Get a key of everything that changes the rendered meme, besides the image.
+     * Equal keys render equal memes
+     *
+     * @return the key
+     */
+    public String getContentKey() {
+        // Captions are length prefixed, so they can contain any character
+        return fontId + "|" + fontSize + "|" + textColor + "|" + borderColor + "|" + allCaps + "|" + rotationDeg
+                + "|" + captionTop.length() + ":" + captionTop + "|" + captionBottom.length() + ":" + captionBottom;
+    }
+
     @Override
     public String toString() {
         return captionTop + "\n" + captionBottom;
@@ -214,12 +249,37 @@ public class MemeSetting implements Serializable {
     }
 
     /**
-     * Sets the image to be displayed
+     * Sets the image to be displayed. Must not be called on copies that share the display image,
+     * as the cached rotated image gets released
      *
      * @param displayImage the image
      */
     public void setDisplayImage(Bitmap displayImage) {
+        if (rotatedDisplayImage != null) {
+            rotatedDisplayImage.release(this.displayImage);
+        }
         this.displayImage = displayImage;
+        rotatedDisplayImage = new RotatedImage();
+    }
+
+    /**
+     * Gets the image to be displayed, rotated by the current rotation.
+     * The rotated image is computed once per rotation change and shared with copies
+     *
+     * @return the rotated image
+     */
+    public Bitmap getRotatedDisplayImage() {
+        if (rotationDeg == 0 || displayImage == null) {
+            return displayImage;
+        }
+        synchronized (rotatedDisplayImage) {
+            if (rotatedDisplayImage.bitmap == null || rotatedDisplayImage.rotationDeg != rotationDeg) {
+                rotatedDisplayImage.release(displayImage);
+                rotatedDisplayImage.bitmap = Helpers.get().rotateBitmapLossless(displayImage, rotationDeg);
+                rotatedDisplayImage.rotationDeg = rotationDeg;
+            }
+            return rotatedDisplayImage.bitmap;
+        }
     }
 
     /**
@@ -267,4 +327,17 @@ public class MemeSetting implements Serializable {
         this.rotationDeg = rotationDeg;
         notifyChangedListener();
     }
+
+    // Rotated display image, shared between copies of a setting
+    private static class RotatedImage {
+        Bitmap bitmap;
+        int rotationDeg;
+
+        synchronized void release(Bitmap displayImage) {
+            if (bitmap != null && bitmap != displayImage && !bitmap.isRecycled()) {
+                bitmap.recycle();
+            }
+            bitmap = null;
+        }
+    }
 }
@@ -0,0 +1,326 @@
+package io.github.gsantner.memetastic.data;
+
+import android.content.Context;
+import android.os.Environment;
+import android.os.FileObserver;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import io.github.gsantner.memetastic.App;
+import io.github.gsantner.memetastic.R;
+import io.github.gsantner.memetastic.util.MemeSaveQueue;
+
+/**
+ * Persistent index of the saved memes (name, modification time, size, thumbnail status).
+ * It is kept up to date by watching the pictures and thumbnail folder and by saves of the app,
+ * so the folders are only listed again when they were changed while the app was not running.
+ * Memes saved by the app also have a hash of their content, to find them when saved again
+ */
+public class SavedMemesIndex {
+    private static final String INDEX_FILENAME = "saved_memes.index";
+    private static final int VERSION = 2;
+    private static final long PERSIST_DELAY_MS = 2000;
+    private static final int OBSERVED_EVENTS = FileObserver.CLOSE_WRITE | FileObserver.MOVED_TO
+            | FileObserver.DELETE | FileObserver.MOVED_FROM;
+
+    /**
+     * A saved meme
+     */
+    public static class Entry {
+        public final String name;
+        public final long lastModified;
+        public final long size;
+        public final boolean hasThumbnail;
+        // Empty if the meme was not saved by the app or changed afterwards
+        public final String contentHash;
+
+        public Entry(String name, long lastModified, long size, boolean hasThumbnail, String contentHash) {
+            this.name = name;
+            this.lastModified = lastModified;
+            this.size = size;
+            this.hasThumbnail = hasThumbnail;
+            this.contentHash = contentHash;
+        }
+
+        // Returns true if the file is unchanged since this entry was made
+        private boolean isSameFile(long lastModified, long size) {
+            return this.lastModified == lastModified && this.size == size;
+        }
+    }
+
+    // Newest first
+    private static final Comparator<Entry> NEWEST_FIRST = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry e1, Entry e2) {
+            if (e1.lastModified != e2.lastModified) {
+                return e1.lastModified > e2.lastModified ? -1 : 1;
+            }
+            return e2.name.compareTo(e1.name);
+        }
+    };
+
+    private static SavedMemesIndex instance;
+
+    private final File pictureDir;
+    private final File thumbnailDir;
+    private final File indexFile;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private List<Entry> sortedEntries = null;
+    private Map<String, Entry> entriesByContentHash = null;
+    private final Handler persistHandler;
+    private final FileObserver pictureObserver;
+    private final FileObserver thumbnailObserver;
+
+    public static synchronized SavedMemesIndex get() {
+        if (instance == null) {
+            instance = new SavedMemesIndex(App.get());
+        }
+        return instance;
+    }
+
+    private SavedMemesIndex(Context context) {
+        pictureDir = new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES), context.getString(R.string.app_name));
+        thumbnailDir = new File(pictureDir, context.getString(R.string.dot_thumbnails));
+        indexFile = new File(context.getFilesDir(), INDEX_FILENAME);
+        HandlerThread persistThread = new HandlerThread("SavedMemesIndex", Process.THREAD_PRIORITY_BACKGROUND);
+        persistThread.start();
+        persistHandler = new Handler(persistThread.getLooper());
+
+        pictureDir.mkdirs();
+        thumbnailDir.mkdirs();
+        if (!load()) {
+            rescan();
+            schedulePersist();
+        }
+
+        pictureObserver = new FileObserver(pictureDir.getAbsolutePath(), OBSERVED_EVENTS) {
+            @Override
+            public void onEvent(int event, String path) {
+                if (path != null) {
+                    update(path);
+                }
+            }
+        };
+        thumbnailObserver = new FileObserver(thumbnailDir.getAbsolutePath(), OBSERVED_EVENTS) {
+            @Override
+            public void onEvent(int event, String path) {
+                if (path != null) {
+                    update(path);
+                }
+            }
+        };
+        pictureObserver.startWatching();
+        thumbnailObserver.startWatching();
+    }
+
+    public File getPictureDir() {
+        return pictureDir;
+    }
+
+    public File getThumbnailDir() {
+        return thumbnailDir;
+    }
+
+    /**
+     * Get all saved memes, newest first
+     *
+     * @return a snapshot of the index
+     */
+    public synchronized List<Entry> getEntries() {
+        if (sortedEntries == null) {
+            sortedEntries = new ArrayList<>(entries.values());
+            Collections.sort(sortedEntries, NEWEST_FIRST);
+        }
+        return Collections.unmodifiableList(sortedEntries);
+    }
+
+    /**
+     * Find a saved meme by the hash of its content
+     *
+     * @param contentHash the hash, see {@link #onMemeSaved(String, String)}
+     * @return the meme, or null if no unchanged meme with this content is saved
+     */
+    public synchronized Entry findByContentHash(String contentHash) {
+        if (entriesByContentHash == null) {
+            entriesByContentHash = new HashMap<>();
+            for (Entry entry : entries.values()) {
+                if (!entry.contentHash.isEmpty()) {
+                    entriesByContentHash.put(entry.contentHash, entry);
+                }
+            }
+        }
+        Entry entry = entriesByContentHash.get(contentHash);
+        if (entry != null) {
+            File file = new File(pictureDir, entry.name);
+            if (!file.isFile() || !entry.isSameFile(file.lastModified(), file.length())) {
+                update(entry.name);
+                return null;
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Update the index after the app saved a meme (or its thumbnail)
+     *
+     * @param filename    the filename of the meme
+     * @param contentHash hash of everything the meme was rendered from
+     */
+    public synchronized void onMemeSaved(String filename, String contentHash) {
+        update(filename);
+        Entry entry = entries.get(filename);
+        if (entry != null) {
+            entries.put(filename, new Entry(filename, entry.lastModified, entry.size, entry.hasThumbnail, contentHash));
+            entriesByContentHash = null;
+        }
+    }
+
+    /**
+     * Read the state of a single meme from the filesystem into the index
+     *
+     * @param filename the filename of the meme
+     */
+    public synchronized void update(String filename) {
+        if (!MemeSaveQueue.isSavedMemeFilename(filename)) {
+            return;
+        }
+        File file = new File(pictureDir, filename);
+        if (file.isFile()) {
+            long lastModified = file.lastModified();
+            long size = file.length();
+            Entry previous = entries.get(filename);
+            String contentHash = previous != null && previous.isSameFile(lastModified, size) ? previous.contentHash : "";
+            entries.put(filename, new Entry(filename, lastModified, size, new File(thumbnailDir, filename).isFile(), contentHash));
+        } else {
+            entries.remove(filename);
+        }
+        sortedEntries = null;
+        entriesByContentHash = null;
+        schedulePersist();
+    }
+
+    /**
+     * Rebuild the index from one listing of the picture and the thumbnail folder
+     */
+    public synchronized void rescan() {
+        Map<String, Entry> previousEntries = new HashMap<>(entries);
+        entries.clear();
+        sortedEntries = null;
+        entriesByContentHash = null;
+        Set<String> thumbnails = new HashSet<>();
+        String[] thumbnailNames = thumbnailDir.list();
+        if (thumbnailNames != null) {
+            Collections.addAll(thumbnails, thumbnailNames);
+        }
+        File[] files = pictureDir.listFiles();
+        for (File file : files != null ? files : new File[0]) {
+            if (file.isFile() && MemeSaveQueue.isSavedMemeFilename(file.getName())) {
+                String name = file.getName();
+                long lastModified = file.lastModified();
+                long size = file.length();
+                Entry previous = previousEntries.get(name);
+                String contentHash = previous != null && previous.isSameFile(lastModified, size) ? previous.contentHash : "";
+                entries.put(name, new Entry(name, lastModified, size, thumbnails.contains(name), contentHash));
+            }
+        }
+    }
+
+    // Loads the index, returns false if it is missing or the folders changed in the meantime
+    private synchronized boolean load() {
+        if (!indexFile.isFile()) {
+            return false;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+            if (in.readInt() != VERSION || in.readLong() != pictureDir.lastModified()
+                    || in.readLong() != thumbnailDir.lastModified()) {
+                return false;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Entry entry = new Entry(in.readUTF(), in.readLong(), in.readLong(), in.readBoolean(), in.readUTF());
+                entries.put(entry.name, entry);
+            }
+            return true;
+        } catch (IOException e) {
+            entries.clear();
+            return false;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    // Changes come in bursts (meme + thumbnail), so they are written together
+    private void schedulePersist() {
+        persistHandler.removeCallbacks(persist);
+        persistHandler.postDelayed(persist, PERSIST_DELAY_MS);
+    }
+
+    private final Runnable persist = new Runnable() {
+        @Override
+        public void run() {
+            List<Entry> snapshot;
+            long pictureDirModified, thumbnailDirModified;
+            synchronized (SavedMemesIndex.this) {
+                snapshot = new ArrayList<>(entries.values());
+                pictureDirModified = pictureDir.lastModified();
+                thumbnailDirModified = thumbnailDir.lastModified();
+            }
+
+            File tempFile = new File(indexFile.getPath() + ".tmp");
+            DataOutputStream out = null;
+            try {
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+                out.writeInt(VERSION);
+                out.writeLong(pictureDirModified);
+                out.writeLong(thumbnailDirModified);
+                out.writeInt(snapshot.size());
+                for (Entry entry : snapshot) {
+                    out.writeUTF(entry.name);
+                    out.writeLong(entry.lastModified);
+                    out.writeLong(entry.size);
+                    out.writeBoolean(entry.hasThumbnail);
+                    out.writeUTF(entry.contentHash);
+                }
+                out.close();
+                out = null;
+                if (!tempFile.renameTo(indexFile)) {
+                    App.log("SavedMemesIndex: could not write index");
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                if (out != null) {
+                    try {
+                        out.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+        }
+    };
+}
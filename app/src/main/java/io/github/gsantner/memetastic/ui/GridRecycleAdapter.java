@@ -5,6 +5,8 @@ import android.content.Context;
 import android.content.Intent;
 import android.graphics.Bitmap;
 import android.support.design.widget.Snackbar;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.GridLayoutManager;
 import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -13,21 +15,30 @@ import android.view.animation.Animation;
 import android.view.animation.AnimationUtils;
 import android.widget.ImageView;
 
+import java.io.File;
+
 import io.github.gsantner.memetastic.App;
 import io.github.gsantner.memetastic.R;
 import io.github.gsantner.memetastic.activity.MainActivity;
 import io.github.gsantner.memetastic.activity.MemeCreateActivity;
+import io.github.gsantner.memetastic.data.MemeLibConfig;
 import io.github.gsantner.memetastic.data.MemeOriginAssets;
 import io.github.gsantner.memetastic.data.MemeOriginFavorite;
 import io.github.gsantner.memetastic.data.MemeOriginInterface;
 import io.github.gsantner.memetastic.util.Helpers;
-import io.github.gsantner.memetastic.util.ImageLoaderTask;
+import io.github.gsantner.memetastic.util.ImageCache;
+import io.github.gsantner.memetastic.util.ImageLoader;
 
 /**
  * Adapter to show images in a Grid
  */
-public class GridRecycleAdapter extends RecyclerView.Adapter<GridRecycleAdapter.ViewHolder> implements ImageLoaderTask.OnImageLoadedListener {
+public class GridRecycleAdapter extends RecyclerView.Adapter<GridRecycleAdapter.ViewHolder> implements ImageLoader.OnImageLoadedListener {
+    // rows ahead of the scroll direction whose images get loaded before they are visible
+    public static final int PREFETCH_ROWS = 3;
+
     private MemeOriginInterface mMemeObject;
+    // items shown for the current data, to diff against when the data changes
+    private ShownItem[] mShownItems;
     private int mShortAnimationDuration;
     private Activity mActivity;
     private App app;
@@ -37,6 +48,87 @@ public class GridRecycleAdapter extends RecyclerView.Adapter<GridRecycleAdapter.
         mShortAnimationDuration = -1;
         mActivity = act;
         app = (App) (mActivity.getApplication());
+        mShownItems = getShownItems(memeObject);
+    }
+
+    /**
+     * Show other memes in the grid. Only the positions that differ get rebound,
+     * so view holders and their images are kept
+     *
+     * @param memeObject the memes to show
+     */
+    public void setMemeObject(MemeOriginInterface memeObject) {
+        ImageLoader.get().cancelPrefetches();
+        boolean sameLayout = mMemeObject.showFavButton() == memeObject.showFavButton()
+                && mMemeObject.isAsset() == memeObject.isAsset();
+        mMemeObject = memeObject;
+        if (sameLayout) {
+            notifyMemeObjectChanged();
+        } else {
+            mShownItems = getShownItems(memeObject);
+            notifyDataSetChanged();
+        }
+    }
+
+    /**
+     * Update the grid after the memes of the current data changed (e.g. a favorite was removed)
+     */
+    public void notifyMemeObjectChanged() {
+        final ShownItem[] oldItems = mShownItems;
+        final ShownItem[] newItems = getShownItems(mMemeObject);
+        mShownItems = newItems;
+        DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return oldItems.length;
+            }
+
+            @Override
+            public int getNewListSize() {
+                return newItems.length;
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+                return oldItems[oldItemPosition].path.equals(newItems[newItemPosition].path);
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+                return oldItems[oldItemPosition].isSameContent(newItems[newItemPosition]);
+            }
+        }, false).dispatchUpdatesTo(this);
+    }
+
+    private ShownItem[] getShownItems(MemeOriginInterface memeObject) {
+        ShownItem[] items = new ShownItem[memeObject.getLength()];
+        for (int i = 0; i < items.length; i++) {
+            String path = memeObject.getFilepath(i);
+            // files can be saved again under the same path, assets only change with the app
+            File image = memeObject.isAsset() ? null : new File(memeObject.getPath(i, true));
+            items[i] = new ShownItem(path, app.settings.isFavorite(path),
+                    image != null ? image.lastModified() : 0, image != null ? image.length() : 0);
+        }
+        return items;
+    }
+
+    // what a bound cell shows of an item, a cell gets rebound when any of it changed
+    private static class ShownItem {
+        final String path;
+        final boolean favorite;
+        final long modified;
+        final long length;
+
+        ShownItem(String path, boolean favorite, long modified, long length) {
+            this.path = path;
+            this.favorite = favorite;
+            this.modified = modified;
+            this.length = length;
+        }
+
+        boolean isSameContent(ShownItem other) {
+            return favorite == other.favorite && modified == other.modified && length == other.length;
+        }
     }
 
     @Override
@@ -59,7 +151,7 @@ public class GridRecycleAdapter extends RecyclerView.Adapter<GridRecycleAdapter.
         } else {
             if (mMemeObject instanceof MemeOriginFavorite) {
                 ((MemeOriginFavorite) mMemeObject).setFiles(app.settings.getFavoriteMemes());
-                notifyDataSetChanged();
+                notifyMemeObjectChanged();
             } else {
                 tintFavourite(imageButtonFav, false);
             }
@@ -68,37 +160,50 @@ public class GridRecycleAdapter extends RecyclerView.Adapter<GridRecycleAdapter.
 
     // sets up the view of the item at the position in the grid
     @Override
-    public void onBindViewHolder(final ViewHolder holder, int pos) {
-        final int position = pos;
+    public void onBindViewHolder(final ViewHolder holder, int position) {
         holder.imageButtonFav.setVisibility(View.INVISIBLE);
         holder.imageView.setVisibility(View.INVISIBLE);
-        ImageLoaderTask taskLoadImage;
-        if (mMemeObject instanceof MemeOriginAssets) {
-            taskLoadImage = new ImageLoaderTask(this, holder, true, mActivity.getAssets());
+        releaseImage(holder);
+        String imagePath = mMemeObject.getPath(position, true);
+        Bitmap cached = ImageCache.get().acquireFromMemory(ImageCache.getKey(imagePath, MemeLibConfig.MEME_SHOWCASE_GRID_MAX_IMAGESIZE));
+        if (cached != null) {
+            ImageLoader.get().cancel(holder);
+            showImage(cached, holder, false);
         } else {
-            taskLoadImage = new ImageLoaderTask(this, holder, true);
+            ImageLoader.get().load(imagePath, mMemeObject.isAsset(), MemeLibConfig.MEME_SHOWCASE_GRID_MAX_IMAGESIZE,
+                    ImageLoader.PRIORITY_VISIBLE, holder, this);
         }
-        taskLoadImage.execute(mMemeObject.getPath(position, true));
         holder.imageView.setTag(mMemeObject.getFilepath(position));
 
         tintFavourite(holder.imageButtonFav, app.settings.isFavorite(mMemeObject.getFilepath(position)));
 
+        // positions can change without a rebind when the data changes, so they are looked up on click
         holder.imageView.setOnLongClickListener(new View.OnLongClickListener() {
             public boolean onLongClick(View v) {
-                onImageLongClicked(position, holder.imageButtonFav, mMemeObject);
+                int position = holder.getAdapterPosition();
+                if (position != RecyclerView.NO_POSITION) {
+                    onImageLongClicked(position, holder.imageButtonFav, mMemeObject);
+                }
                 return true;
             }
         });
         holder.imageButtonFav.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
-                toggleFavorite(position, holder.imageButtonFav, mMemeObject);
+                int position = holder.getAdapterPosition();
+                if (position != RecyclerView.NO_POSITION) {
+                    toggleFavorite(position, holder.imageButtonFav, mMemeObject);
+                }
             }
         });
 
         holder.imageView.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
+                int position = holder.getAdapterPosition();
+                if (position == RecyclerView.NO_POSITION) {
+                    return;
+                }
                 if (mMemeObject instanceof MemeOriginAssets) {
                     Intent intent = new Intent(mActivity, MemeCreateActivity.class);
                     intent.putExtra(MemeCreateActivity.EXTRA_IMAGE_PATH, mMemeObject.getFilepath(position));
@@ -113,6 +218,71 @@ public class GridRecycleAdapter extends RecyclerView.Adapter<GridRecycleAdapter.
         });
     }
 
+    @Override
+    public void onAttachedToRecyclerView(RecyclerView recyclerView) {
+        super.onAttachedToRecyclerView(recyclerView);
+        recyclerView.addOnScrollListener(mPrefetchScrollListener);
+    }
+
+    @Override
+    public void onDetachedFromRecyclerView(RecyclerView recyclerView) {
+        super.onDetachedFromRecyclerView(recyclerView);
+        recyclerView.removeOnScrollListener(mPrefetchScrollListener);
+        ImageLoader.get().cancelPrefetches();
+        ImageLoader.get().logStats();
+    }
+
+    /**
+     * Loads the images of some positions into the cache, without showing them
+     *
+     * @param memeObject the memes to prefetch from
+     * @param start      the first position to prefetch
+     * @param count      the count of positions to prefetch, starting at start (negative for backwards)
+     */
+    public static void prefetch(MemeOriginInterface memeObject, int start, int count) {
+        int step = count < 0 ? -1 : 1;
+        for (int i = 0, pos = start; i < Math.abs(count) && pos >= 0 && pos < memeObject.getLength(); i++, pos += step) {
+            ImageLoader.get().prefetch(memeObject.getPath(pos, true), memeObject.isAsset(), MemeLibConfig.MEME_SHOWCASE_GRID_MAX_IMAGESIZE);
+        }
+    }
+
+    // prefetches the next rows in scroll direction, each row only once per pass
+    private final RecyclerView.OnScrollListener mPrefetchScrollListener = new RecyclerView.OnScrollListener() {
+        private int lastPrefetchEdge = RecyclerView.NO_POSITION;
+
+        @Override
+        public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+            if (dy == 0 || !(recyclerView.getLayoutManager() instanceof GridLayoutManager)) {
+                return;
+            }
+            GridLayoutManager layoutManager = (GridLayoutManager) recyclerView.getLayoutManager();
+            int edge = dy > 0 ? layoutManager.findLastVisibleItemPosition() : layoutManager.findFirstVisibleItemPosition();
+            if (edge == RecyclerView.NO_POSITION || edge == lastPrefetchEdge) {
+                return;
+            }
+            lastPrefetchEdge = edge;
+            int count = PREFETCH_ROWS * app.settings.getGridColumnCount();
+            prefetch(mMemeObject, dy > 0 ? edge + 1 : edge - 1, dy > 0 ? count : -count);
+        }
+    };
+
+    // holders that scrolled away don't need their image anymore
+    @Override
+    public void onViewRecycled(ViewHolder holder) {
+        super.onViewRecycled(holder);
+        ImageLoader.get().cancel(holder);
+        releaseImage(holder);
+    }
+
+    // gives the bitmap of the holder back, so it can be reused for other decodes
+    private void releaseImage(ViewHolder holder) {
+        if (holder.bitmap != null) {
+            holder.imageView.setImageDrawable(null);
+            ImageCache.get().release(holder.bitmap);
+            holder.bitmap = null;
+        }
+    }
+
     private void tintFavourite(ImageView iv, boolean isFav) {
         Helpers.get().setDrawableWithColorToImageView(iv,
                 isFav ? R.drawable.ic_star_black_48px : R.drawable.ic_star_border_black_48px,
@@ -145,10 +315,24 @@ public class GridRecycleAdapter extends RecyclerView.Adapter<GridRecycleAdapter.
 
     @Override
     public void onImageLoaded(Bitmap bitmap, ViewHolder holder) {
-        Animation animation = AnimationUtils.loadAnimation(mActivity, R.anim.fadeinfast);
-        holder.imageView.startAnimation(animation);
+        if (bitmap != null) {
+            ImageCache.get().acquire(bitmap);
+        }
+        showImage(bitmap, holder, true);
+    }
+
+    // shows the image in the holder, which takes over the reference to the bitmap.
+    // images from the memory cache appear without fading in
+    private void showImage(Bitmap bitmap, ViewHolder holder, boolean animate) {
+        holder.bitmap = bitmap;
+        if (animate) {
+            Animation animation = AnimationUtils.loadAnimation(mActivity, R.anim.fadeinfast);
+            holder.imageView.startAnimation(animation);
+            if (mMemeObject.showFavButton()) {
+                holder.imageButtonFav.startAnimation(animation);
+            }
+        }
         if (mMemeObject.showFavButton()) {
-            holder.imageButtonFav.startAnimation(animation);
             holder.imageButtonFav.setVisibility(View.VISIBLE);
         }
         holder.imageView.setImageBitmap(bitmap);
@@ -159,6 +343,10 @@ public class GridRecycleAdapter extends RecyclerView.Adapter<GridRecycleAdapter.
     public class ViewHolder extends RecyclerView.ViewHolder {
         public ImageView imageView;
         public ImageView imageButtonFav;
+        // token of the current image request, see ImageLoader
+        public int loadToken;
+        // the shown bitmap, referenced in the ImageCache
+        public Bitmap bitmap;
 
         // saves the instance of the image view of the meme and favorite button to access them later
         public ViewHolder(View itemView) {
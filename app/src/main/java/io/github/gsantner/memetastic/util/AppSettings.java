@@ -134,6 +134,23 @@ public class AppSettings extends AppSettingsBase {
         return getInt(prefApp, R.string.pref_key__last_selected_category, 0);
     }
 
+    // Filename up to which (sorted by name) missing thumbnails were handled in the current pass
+    public String getThumbnailMaintenanceCheckpoint() {
+        return getString(prefApp, R.string.pref_key__thumbnail_maintenance_checkpoint, "");
+    }
+
+    public void setThumbnailMaintenanceCheckpoint(String value) {
+        setString(prefApp, R.string.pref_key__thumbnail_maintenance_checkpoint, value);
+    }
+
+    public long getThumbnailMaintenanceLastRun() {
+        return getLong(prefApp, R.string.pref_key__thumbnail_maintenance_last_run, 0);
+    }
+
+    public void setThumbnailMaintenanceLastRun(long value) {
+        setLong(prefApp, R.string.pref_key__thumbnail_maintenance_last_run, value);
+    }
+
     public int getGridColumnCountPortrait() {
         int count = getInt(prefApp, R.string.pref_key__grid_column_count_portrait, -1);
         if (count == -1) {
@@ -160,6 +177,11 @@ public class AppSettings extends AppSettingsBase {
         setInt(prefApp, R.string.pref_key__grid_column_count_landscape, value);
     }
 
+    // Column count of the grids for the current orientation
+    public int getGridColumnCount() {
+        return Helpers.get().isInPortraitMode() ? getGridColumnCountPortrait() : getGridColumnCountLandscape();
+    }
+
     public boolean isAppFirstStart(boolean doSet) {
         boolean value = getBool(prefApp, R.string.pref_key__app_first_start, true);
         if (doSet) {
@@ -0,0 +1,140 @@
+package io.github.gsantner.memetastic.util;
+
+import android.annotation.TargetApi;
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeMap;
+
+import io.github.gsantner.memetastic.App;
+
+/**
+ * Pool of bitmaps that are not shown or cached anymore, bucketed by their allocation size.
+ * Decodes of grid images take a bitmap of a fitting bucket as {@link BitmapFactory.Options#inBitmap},
+ * so scrolling does not allocate new pixel buffers. Reusing bitmaps of a different size needs
+ * API 19, on older devices the pool stays empty
+ */
+public class BitmapPool {
+    // Part of the memory class of the app that may be held by the pool
+    private static final int MAX_SIZE_DIVIDER = 16;
+    // A bitmap is only reused for decodes that need at least 1/n of its size
+    private static final int MAX_WASTE_FACTOR = 2;
+
+    private static BitmapPool instance;
+
+    private final TreeMap<Integer, LinkedList<Bitmap>> buckets = new TreeMap<>();
+    private final int maxBytes;
+    private int bytes = 0;
+    private int hits = 0;
+    private int misses = 0;
+
+    public static synchronized BitmapPool get() {
+        if (instance == null) {
+            instance = new BitmapPool(App.get());
+        }
+        return instance;
+    }
+
+    private BitmapPool(Context context) {
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        maxBytes = activityManager.getMemoryClass() * 1024 * 1024 / MAX_SIZE_DIVIDER;
+    }
+
+    public static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+    }
+
+    /**
+     * Prepare options for a decode, so the result can be pooled later and a pooled bitmap
+     * gets reused if one fits. options.outWidth, outHeight and inSampleSize must be set
+     *
+     * @param options the options of the decode
+     */
+    public void prepare(BitmapFactory.Options options) {
+        if (!isSupported()) {
+            return;
+        }
+        options.inMutable = true;
+        // Older decoders round the sample size down to a power of two, the result is sized for that
+        int sampleSize = Integer.highestOneBit(Math.max(1, options.inSampleSize));
+        int width = (options.outWidth + sampleSize - 1) / sampleSize;
+        int height = (options.outHeight + sampleSize - 1) / sampleSize;
+        Bitmap.Config config = options.inPreferredConfig != null ? options.inPreferredConfig : Bitmap.Config.ARGB_8888;
+        options.inBitmap = take(width * height * getBytesPerPixel(config));
+    }
+
+    /**
+     * Give a bitmap that is neither shown nor cached anymore back to the pool
+     *
+     * @param bitmap the bitmap
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    public synchronized void put(Bitmap bitmap) {
+        if (!isSupported() || bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()) {
+            return;
+        }
+        int size = bitmap.getAllocationByteCount();
+        if (size > maxBytes) {
+            return;
+        }
+        LinkedList<Bitmap> bucket = buckets.get(size);
+        if (bucket == null) {
+            bucket = new LinkedList<>();
+            buckets.put(size, bucket);
+        }
+        bucket.addLast(bitmap);
+        bytes += size;
+
+        // Drop from the largest buckets first, they free the most memory
+        while (bytes > maxBytes) {
+            Map.Entry<Integer, LinkedList<Bitmap>> largest = buckets.lastEntry();
+            largest.getValue().removeFirst();
+            bytes -= largest.getKey();
+            if (largest.getValue().isEmpty()) {
+                buckets.remove(largest.getKey());
+            }
+        }
+    }
+
+    // Takes the smallest pooled bitmap that can hold the given count of bytes
+    private synchronized Bitmap take(int neededBytes) {
+        Map.Entry<Integer, LinkedList<Bitmap>> entry = buckets.ceilingEntry(neededBytes);
+        if (entry == null || entry.getKey() > neededBytes * MAX_WASTE_FACTOR) {
+            misses++;
+            return null;
+        }
+        Bitmap bitmap = entry.getValue().removeFirst();
+        bytes -= entry.getKey();
+        if (entry.getValue().isEmpty()) {
+            buckets.remove(entry.getKey());
+        }
+        hits++;
+        return bitmap;
+    }
+
+    public synchronized void clear() {
+        buckets.clear();
+        bytes = 0;
+    }
+
+    public synchronized String getStats() {
+        return "pool " + (bytes / 1024) + "KB, reused " + hits + ", allocated " + misses;
+    }
+
+    private static int getBytesPerPixel(Bitmap.Config config) {
+        switch (config) {
+            case ALPHA_8:
+                return 1;
+            case RGB_565:
+            case ARGB_4444:
+                return 2;
+            default:
+                return 4;
+        }
+    }
+}
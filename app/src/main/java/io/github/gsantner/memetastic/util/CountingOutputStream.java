@@ -0,0 +1,54 @@
+package io.github.gsantner.memetastic.util;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Counts the bytes written to the wrapped stream and the time spent in writing them
+ */
+public class CountingOutputStream extends FilterOutputStream {
+    private long count = 0;
+    private long writeNanos = 0;
+
+    public CountingOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        long start = System.nanoTime();
+        out.write(b);
+        writeNanos += System.nanoTime() - start;
+        count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        long start = System.nanoTime();
+        out.write(b, off, len);
+        writeNanos += System.nanoTime() - start;
+        count += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        long start = System.nanoTime();
+        out.flush();
+        writeNanos += System.nanoTime() - start;
+    }
+
+    /**
+     * @return count of bytes written
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return time spent in writing and flushing the wrapped stream, in nanoseconds
+     */
+    public long getWriteNanos() {
+        return writeNanos;
+    }
+}
@@ -0,0 +1,102 @@
+package io.github.gsantner.memetastic.util;
+
+import android.graphics.Bitmap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import io.github.gsantner.memetastic.App;
+
+/**
+ * How images are encoded for a certain use: format, quality and optionally a maximal size.
+ * With a maximal size the highest quality between minimal and preferred quality is searched
+ * whose result fits, if none fits the minimal quality is used
+ */
+public class EncodeProfile {
+    // Thumbnails keep the .jpg filename of their meme and may be shared when the meme is gone,
+    // so they stay JPEG and are kept small by the size limit
+    public static final EncodeProfile THUMBNAIL = new EncodeProfile(ImageEncoder.JPEG, 80, 50, 24 * 1024);
+    // Sent to other apps, most of them handle JPEG best
+    public static final EncodeProfile SHARE = new EncodeProfile(ImageEncoder.JPEG, 90, 60, 1024 * 1024);
+    // Saved memes, kept by the user
+    public static final EncodeProfile ARCHIVE = new EncodeProfile(ImageEncoder.JPEG, 95, 95, 0);
+
+    private final ImageEncoder encoder;
+    private final int quality;
+    private final int minQuality;
+    private final long maxBytes;
+
+    /**
+     * @param encoder    the image format
+     * @param quality    preferred quality
+     * @param minQuality lowest quality that may be used to stay below maxBytes
+     * @param maxBytes   maximal size of the result, 0 for no limit
+     */
+    public EncodeProfile(ImageEncoder encoder, int quality, int minQuality, long maxBytes) {
+        this.encoder = encoder;
+        this.quality = quality;
+        this.minQuality = Math.min(minQuality, quality);
+        this.maxBytes = maxBytes;
+    }
+
+    public ImageEncoder getEncoder() {
+        return encoder;
+    }
+
+    /**
+     * Encode the bitmap with this profile
+     *
+     * @param bitmap the bitmap
+     * @param out    stream the image is written to
+     * @throws IOException if the bitmap could not be encoded or written
+     */
+    public void encode(Bitmap bitmap, OutputStream out) throws IOException {
+        if (maxBytes <= 0 || !encoder.isLossy() || quality == minQuality) {
+            encoder.encode(bitmap, quality, out);
+            return;
+        }
+
+        // Encode to memory until the quality is found, then write only the result
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream((int) Math.min(maxBytes, bitmap.getByteCount() / 4));
+        byte[] best = encodeToBytes(bitmap, quality, buffer);
+        int bestQuality = quality;
+        int encodings = 1;
+        if (best.length > maxBytes) {
+            byte[] smallest = best;
+            int smallestQuality = quality;
+            best = null;
+            int low = minQuality;
+            int high = quality - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                byte[] result = encodeToBytes(bitmap, mid, buffer);
+                encodings++;
+                if (result.length <= maxBytes) {
+                    best = result;
+                    bestQuality = mid;
+                    low = mid + 1;
+                } else {
+                    if (result.length < smallest.length) {
+                        smallest = result;
+                        smallestQuality = mid;
+                    }
+                    high = mid - 1;
+                }
+            }
+            if (best == null) {
+                best = smallest;
+                bestQuality = smallestQuality;
+            }
+        }
+        App.log("EncodeProfile: " + encoder.getExtension() + " quality " + bestQuality + ", "
+                + (best.length / 1024) + "KB after " + encodings + " encodings");
+        out.write(best);
+    }
+
+    private byte[] encodeToBytes(Bitmap bitmap, int quality, ByteArrayOutputStream buffer) throws IOException {
+        buffer.reset();
+        encoder.encode(bitmap, quality, buffer);
+        return buffer.toByteArray();
+    }
+}
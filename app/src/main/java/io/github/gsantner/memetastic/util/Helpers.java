@@ -4,22 +4,34 @@ import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Matrix;
+import android.net.Uri;
 import android.os.Build;
 import android.support.annotation.ColorRes;
 import android.support.annotation.DrawableRes;
+import android.support.media.ExifInterface;
 import android.support.v4.content.ContextCompat;
 import android.view.View;
 import android.widget.ImageView;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 import io.github.gsantner.memetastic.App;
 import io.github.gsantner.memetastic.data.MemeLibConfig;
+import io.github.gsantner.memetastic.data.MemeManifest;
 
 public class Helpers extends io.github.gsantner.opoc.util.Helpers {
+    // Bytes that may be read while probing image bounds before the stream is reset
+    private static final int ASSET_MARK_LIMIT = 256 * 1024;
+    private static final int SAVE_BUFFER_SIZE = 64 * 1024;
+
     protected Helpers(Context context) {
         super(context);
     }
@@ -49,44 +61,485 @@ public class Helpers extends io.github.gsantner.opoc.util.Helpers {
         return inSampleSize;
     }
 
+    /**
+     * Scales the bitmap to the thumbnail size (shorter side), the bitmap itself is kept.
+     * Large bitmaps are halved first, so the bilinear filter of the final exact scale does not alias
+     *
+     * @param bitmap the bitmap
+     * @return the thumbnail
+     */
     public Bitmap createThumbnail(Bitmap bitmap) {
-        int thumbnailSize = 300;
-        int picSize = Math.min(bitmap.getHeight(), bitmap.getWidth());
-        float scale = 1.f * thumbnailSize / picSize;
-        Matrix matrix = new Matrix();
-        matrix.postScale(scale, scale);
-        return Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+        Bitmap current = bitmap;
+        while (Math.min(current.getWidth(), current.getHeight()) / 2 >= MemeLibConfig.MEME_THUMBNAIL_SIZE) {
+            Bitmap half = Bitmap.createScaledBitmap(current, current.getWidth() / 2, current.getHeight() / 2, true);
+            if (current != bitmap) {
+                current.recycle();
+            }
+            current = half;
+        }
+
+        float scale = 1.f * MemeLibConfig.MEME_THUMBNAIL_SIZE / Math.min(current.getHeight(), current.getWidth());
+        int width = Math.max(1, Math.round(current.getWidth() * scale));
+        int height = Math.max(1, Math.round(current.getHeight() * scale));
+        Bitmap thumbnail = Bitmap.createScaledBitmap(current, width, height, true);
+        if (current != bitmap && current != thumbnail) {
+            current.recycle();
+        }
+        return thumbnail;
     }
 
-    public File saveBitmapToFile(String pathToFile, String filename, Bitmap bitmapToSave) {
-        new File(pathToFile).mkdirs();
-        File imageFile = new File(pathToFile, filename);
+    /**
+     * Creates the thumbnail of an image file. The image is decoded subsampled to the smallest
+     * size that is still at least as big as the thumbnail, then scaled exactly
+     *
+     * @param imagePath path of the image
+     * @return the thumbnail, or null if the image could not be decoded
+     */
+    public Bitmap createThumbnailFromFile(String imagePath) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(imagePath, options);
+        int picSize = Math.min(options.outWidth, options.outHeight);
+        if (picSize <= 0) {
+            return null;
+        }
+        options.inSampleSize = 1;
+        while (picSize / (options.inSampleSize * 2) >= MemeLibConfig.MEME_THUMBNAIL_SIZE) {
+            options.inSampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        Bitmap bitmap = BitmapFactory.decodeFile(imagePath, options);
+        if (bitmap == null) {
+            return null;
+        }
+        Bitmap thumbnail = createThumbnail(bitmap);
+        if (thumbnail != bitmap) {
+            bitmap.recycle();
+        }
+        return thumbnail;
+    }
+
+    /**
+     * Rotates the bitmap clockwise. Steps of 90 degrees are done by moving pixels,
+     * so the image is not resampled and no filtering is applied
+     *
+     * @param bitmap  the bitmap to rotate
+     * @param degrees rotation in degrees
+     * @return the rotated bitmap, or the bitmap itself if there is nothing to rotate
+     */
+    public Bitmap rotateBitmapLossless(Bitmap bitmap, int degrees) {
+        degrees = ((degrees % 360) + 360) % 360;
+        if (degrees == 0) {
+            return bitmap;
+        }
+        if (degrees % 90 != 0) {
+            Matrix matrix = new Matrix();
+            matrix.postRotate(degrees);
+            return Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+        }
+
+        int w = bitmap.getWidth();
+        int h = bitmap.getHeight();
+        Bitmap.Config config = bitmap.getConfig() != null ? bitmap.getConfig() : Bitmap.Config.ARGB_8888;
+        Bitmap rotated = degrees == 180
+                ? Bitmap.createBitmap(w, h, config)
+                : Bitmap.createBitmap(h, w, config);
+
+        // Transpose row by row, source row y becomes a column (90/270) or a row (180) of the result
+        int[] row = new int[w];
+        for (int y = 0; y < h; y++) {
+            bitmap.getPixels(row, 0, w, 0, y, w, 1);
+            if (degrees == 90) {
+                rotated.setPixels(row, 0, 1, h - 1 - y, 0, 1, w);
+            } else {
+                for (int l = 0, r = w - 1; l < r; l++, r--) {
+                    int tmp = row[l];
+                    row[l] = row[r];
+                    row[r] = tmp;
+                }
+                if (degrees == 180) {
+                    rotated.setPixels(row, 0, w, 0, h - 1 - y, w, 1);
+                } else {
+                    rotated.setPixels(row, 0, 1, y, 0, 1, w);
+                }
+            }
+        }
+        return rotated;
+    }
+
+    public SaveResult saveBitmapToFile(String pathToFile, String filename, Bitmap bitmapToSave) {
+        return saveBitmapToFile(pathToFile, filename, bitmapToSave, EncodeProfile.ARCHIVE, false);
+    }
+
+    /**
+     * Saves the bitmap encoded with the profile. It is written to a hidden temporary file first,
+     * which replaces the destination when complete, so readers never see a partly written image
+     *
+     * @param pathToFile   the folder to save in
+     * @param filename     the filename, an existing file is replaced
+     * @param bitmapToSave the bitmap
+     * @param profile      how the bitmap is encoded
+     * @param sync         wait until the file is on the storage before replacing the destination
+     * @return the result, with success false if encoding or writing failed
+     */
+    public SaveResult saveBitmapToFile(String pathToFile, String filename, Bitmap bitmapToSave, EncodeProfile profile, boolean sync) {
+        File dir = new File(pathToFile);
+        dir.mkdirs();
+        File imageFile = new File(dir, filename);
+        File tempFile = null;
 
-        FileOutputStream stream = null;
+        long start = System.nanoTime();
+        long encodeNanos = 0;
+        boolean success = false;
+        FileOutputStream fileStream = null;
+        CountingOutputStream stream = null;
         try {
-            stream = new FileOutputStream(imageFile); // overwrites this image every time
-            bitmapToSave.compress(Bitmap.CompressFormat.JPEG, 95, stream);
-            return imageFile;
-        } catch (FileNotFoundException ignored) {
+            // Every write gets its own temporary file, another writer may save the same file meanwhile
+            tempFile = File.createTempFile("." + filename, ".tmp", dir);
+            fileStream = new FileOutputStream(tempFile);
+            stream = new CountingOutputStream(new BufferedOutputStream(fileStream, SAVE_BUFFER_SIZE));
+            profile.encode(bitmapToSave, stream);
+            encodeNanos = System.nanoTime() - start - stream.getWriteNanos();
+            stream.flush();
+            if (sync) {
+                fileStream.getFD().sync();
+            }
+            stream.close();
+            fileStream = null;
+            if (!tempFile.renameTo(imageFile)) {
+                throw new IOException("Could not rename " + tempFile + " to " + imageFile);
+            }
+            success = true;
+        } catch (IOException e) {
+            e.printStackTrace();
         } finally {
-            try {
-                if (stream != null)
-                    stream.close();
-            } catch (IOException ignored) {
+            if (fileStream != null) {
+                try {
+                    fileStream.close();
+                } catch (IOException ignored) {
+                }
+            }
+            if (!success && tempFile != null) {
+                tempFile.delete();
             }
         }
-        return null;
+        long totalNanos = System.nanoTime() - start;
+        return new SaveResult(imageFile, success, stream != null ? stream.getCount() : 0,
+                encodeNanos / 1000000, (totalNanos - encodeNanos) / 1000000);
     }
 
     public Bitmap loadImageFromFilesystem(String imagePath) {
+        return loadImageFromFilesystem(imagePath, MemeLibConfig.MEME_FULLSCREEN_IMAGESIZE);
+    }
+
+    public Bitmap loadImageFromFilesystem(String imagePath, int maxSize) {
+        return loadImageFromFilesystem(imagePath, maxSize, null);
+    }
+
+    /**
+     * Loads an image from the filesystem, scaled down to at most maxSize
+     *
+     * @param imagePath path of the image
+     * @param maxSize   maximal width/height the image gets subsampled to
+     * @param pool      pool to reuse a bitmap from, or null
+     * @return the image, or null if it could not be decoded
+     */
+    public Bitmap loadImageFromFilesystem(String imagePath, int maxSize, BitmapPool pool) {
         BitmapFactory.Options options = new BitmapFactory.Options();
         options.inJustDecodeBounds = true;
         BitmapFactory.decodeFile(imagePath, options);
-        options.inSampleSize = calculateInSampleSize(options, MemeLibConfig.MEME_FULLSCREEN_IMAGESIZE);
+        options.inSampleSize = calculateInSampleSize(options, maxSize);
         options.inJustDecodeBounds = false;
-        return BitmapFactory.decodeFile(imagePath, options);
+        if (pool != null) {
+            pool.prepare(options);
+        }
+        // Decoded from a stream, decodeFile swallows the exception of a pooled bitmap that does not fit
+        InputStream is = null;
+        try {
+            is = new BufferedInputStream(new FileInputStream(imagePath), SAVE_BUFFER_SIZE);
+            return BitmapFactory.decodeStream(is, null, options);
+        } catch (IllegalArgumentException e) {
+            // The pooled bitmap did not fit, it goes back for other sizes
+            if (pool != null) {
+                pool.put(options.inBitmap);
+                return loadImageFromFilesystem(imagePath, maxSize, null);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (is != null) {
+                try {
+                    is.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Loads an image from the assets, scaled down to at most maxSize.
+     * The asset is usually opened only once, bounds are taken from the meme manifest or get probed
+     * and the stream is reset for decoding
+     *
+     * @param assetPath path of the image inside the assets
+     * @param maxSize   maximal width/height the image gets subsampled to
+     * @param config    the preferred bitmap config
+     * @return the image, or null if it could not be decoded
+     */
+    public Bitmap loadImageFromAssets(String assetPath, int maxSize, Bitmap.Config config) {
+        return loadImageFromAssets(assetPath, maxSize, config, null);
+    }
+
+    /**
+     * Loads an image from the assets like {@link #loadImageFromAssets(String, int, Bitmap.Config)}
+     *
+     * @param pool pool to reuse a bitmap from, or null
+     */
+    public Bitmap loadImageFromAssets(String assetPath, int maxSize, Bitmap.Config config, BitmapPool pool) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        options.inPreferredConfig = config;
+        InputStream is = null;
+        try {
+            is = context.getAssets().open(assetPath);
+            if (!is.markSupported()) {
+                is = new BufferedInputStream(is, ASSET_MARK_LIMIT);
+            }
+
+            // Dimensions of templates are known from the manifest, others get probed
+            MemeManifest.Entry entry = App.get().getMemeManifestEntry(assetPath);
+            if (entry != null && entry.width > 0 && entry.height > 0) {
+                options.outWidth = entry.width;
+                options.outHeight = entry.height;
+            } else {
+                is.mark(ASSET_MARK_LIMIT);
+                BitmapFactory.decodeStream(is, null, options);
+                try {
+                    is.reset();
+                } catch (IOException e) {
+                    // The header was beyond the mark limit, open the asset again
+                    is.close();
+                    is = new BufferedInputStream(context.getAssets().open(assetPath), ASSET_MARK_LIMIT);
+                }
+            }
+
+            options.inSampleSize = calculateInSampleSize(options, maxSize);
+            options.inJustDecodeBounds = false;
+            if (pool != null) {
+                pool.prepare(options);
+            }
+            return BitmapFactory.decodeStream(is, null, options);
+        } catch (IllegalArgumentException e) {
+            // The pooled bitmap did not fit, it goes back for other sizes
+            if (pool != null) {
+                pool.put(options.inBitmap);
+                return loadImageFromAssets(assetPath, maxSize, config, null);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (is != null) {
+                try {
+                    is.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        return null;
     }
 
+    /**
+     * Loads the pre-scaled thumbnail of a meme template from the thumbnail pack of its category
+     *
+     * @param assetPath path of the template inside the assets
+     * @param pool      pool to reuse a bitmap from, or null
+     * @return the thumbnail, or null if the template has no packed thumbnail
+     */
+    public Bitmap loadTemplateThumbnail(String assetPath, BitmapPool pool) {
+        MemeManifest.Entry entry = App.get().getMemeManifestEntry(assetPath);
+        if (entry == null || !entry.hasThumbnail()) {
+            return null;
+        }
+        InputStream is = null;
+        try {
+            is = context.getAssets().open(entry.thumbnailPack);
+            long skip = entry.thumbnailOffset;
+            while (skip > 0) {
+                long skipped = is.skip(skip);
+                if (skipped <= 0) {
+                    return null;
+                }
+                skip -= skipped;
+            }
+            byte[] data = new byte[entry.thumbnailLength];
+            int read = 0;
+            while (read < data.length) {
+                int count = is.read(data, read, data.length - read);
+                if (count < 0) {
+                    return null;
+                }
+                read += count;
+            }
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            if (pool != null) {
+                options.inJustDecodeBounds = true;
+                BitmapFactory.decodeByteArray(data, 0, data.length, options);
+                options.inJustDecodeBounds = false;
+                pool.prepare(options);
+            }
+            try {
+                return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+            } catch (IllegalArgumentException e) {
+                // The pooled bitmap did not fit, it goes back for other sizes
+                if (pool != null) {
+                    pool.put(options.inBitmap);
+                }
+                return BitmapFactory.decodeByteArray(data, 0, data.length);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (is != null) {
+                try {
+                    is.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Loads an image from a content uri (e.g. shared by another app). The image is scaled down
+     * like images from the filesystem and rotated according to its EXIF orientation
+     *
+     * @param uri     the uri of the image
+     * @param maxSize maximal width/height the image gets subsampled to
+     * @param config  the preferred bitmap config
+     * @return the image, or null if it could not be decoded
+     */
+    public Bitmap loadImageFromUri(Uri uri, int maxSize, Bitmap.Config config) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        options.inPreferredConfig = config;
+        InputStream is = null;
+        try {
+            is = context.getContentResolver().openInputStream(uri);
+            BitmapFactory.decodeStream(is, null, options);
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                return null;
+            }
+            is.close();
+
+            options.inSampleSize = calculateInSampleSize(options, maxSize);
+            options.inJustDecodeBounds = false;
+            is = context.getContentResolver().openInputStream(uri);
+            Bitmap bitmap = BitmapFactory.decodeStream(is, null, options);
+            int rotation = getExifRotation(uri);
+            if (bitmap != null && rotation != 0) {
+                Bitmap rotated = rotateBitmapLossless(bitmap, rotation);
+                bitmap.recycle();
+                bitmap = rotated;
+            }
+            return bitmap;
+        } catch (IOException | SecurityException e) {
+            e.printStackTrace();
+        } finally {
+            if (is != null) {
+                try {
+                    is.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Hashes the text, e.g. to use it as filename or index key
+     *
+     * @param text the text
+     * @return MD5 of the text in hex
+     */
+    public String md5(String text) {
+        try {
+            return toHex(MessageDigest.getInstance("MD5").digest(text.getBytes("UTF-8")));
+        } catch (NoSuchAlgorithmException | IOException e) {
+            return Integer.toHexString(text.hashCode());
+        }
+    }
+
+    /**
+     * Hashes the content of a source, reading it once
+     *
+     * @param source the source
+     * @return MD5 of the content in hex, or null if it could not be read
+     */
+    public String md5(MemeExporter.Source source) {
+        InputStream is = null;
+        try {
+            is = source.open();
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[] buffer = new byte[SAVE_BUFFER_SIZE];
+            int read;
+            while ((read = is.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+            return toHex(digest.digest());
+        } catch (NoSuchAlgorithmException | IOException | SecurityException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            if (is != null) {
+                try {
+                    is.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Reads the EXIF orientation of the image at the content uri
+     *
+     * @param uri the uri of the image
+     * @return clockwise rotation in degrees that needs to be applied to show the image upright
+     */
+    public int getExifRotation(Uri uri) {
+        InputStream is = null;
+        try {
+            is = context.getContentResolver().openInputStream(uri);
+            if (is != null) {
+                int orientation = new ExifInterface(is).getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+                switch (orientation) {
+                    case ExifInterface.ORIENTATION_ROTATE_90:
+                        return 90;
+                    case ExifInterface.ORIENTATION_ROTATE_180:
+                        return 180;
+                    case ExifInterface.ORIENTATION_ROTATE_270:
+                        return 270;
+                }
+            }
+        } catch (IOException | SecurityException ignored) {
+        } finally {
+            if (is != null) {
+                try {
+                    is.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        return 0;
+    }
 
     public int getImmersiveUiVisibility() {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
@@ -0,0 +1,290 @@
+package io.github.gsantner.memetastic.util;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import io.github.gsantner.memetastic.App;
+import io.github.gsantner.memetastic.data.SavedMemesIndex;
+
+/**
+ * Two level cache for the images shown in the grids: decoded bitmaps in memory, backed by
+ * pre-scaled WebP images on disk. Images are keyed by their path and the size they are loaded at,
+ * so templates, favorites and created memes share the same cache.
+ * Bitmaps handed out are reference counted, a bitmap that is neither referenced nor in
+ * the memory cache anymore goes to the {@link BitmapPool} to be decoded into again
+ */
+public class ImageCache {
+    private static final String DISK_CACHE_DIR = "thumbnail_cache";
+    private static final long DISK_CACHE_MAX_BYTES = 32 * 1024 * 1024;
+    // Cache files are private to the app, so the smaller WebP is used
+    private static final EncodeProfile DISK_CACHE_PROFILE = new EncodeProfile(ImageEncoder.WEBP, 90, 90, 0);
+    // Part of the memory class of the app that may be used for cached bitmaps
+    private static final int MEMORY_CACHE_DIVIDER = 8;
+
+    private static ImageCache instance;
+
+    private final LruCache<String, Bitmap> memoryCache;
+    private final BitmapPool bitmapPool = BitmapPool.get();
+    // Weak, so references of holders that are gone never keep a bitmap alive
+    private final Map<Bitmap, Integer> references = new WeakHashMap<>();
+    private final Set<Bitmap> referencedButEvicted = Collections.newSetFromMap(new WeakHashMap<Bitmap, Boolean>());
+    private final File diskCacheDir;
+    private final Object diskLock = new Object();
+    private long diskCacheBytes = -1;
+
+    public static synchronized ImageCache get() {
+        if (instance == null) {
+            instance = new ImageCache(App.get());
+        }
+        return instance;
+    }
+
+    private ImageCache(Context context) {
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        int maxBytes = activityManager.getMemoryClass() * 1024 * 1024 / MEMORY_CACHE_DIVIDER;
+        memoryCache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return BitmapPool.isSupported() ? bitmap.getAllocationByteCount() : bitmap.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                if (oldValue != newValue) {
+                    onRemovedFromMemory(oldValue);
+                }
+            }
+        };
+        diskCacheDir = new File(context.getCacheDir(), DISK_CACHE_DIR);
+        App.log("ImageCache: memory cache of " + (maxBytes / 1024) + "KB");
+    }
+
+    /**
+     * Get the key of an image in the cache
+     *
+     * @param path    path of the image (asset path or file path)
+     * @param maxSize maximal width/height the image is loaded at
+     * @return the key
+     */
+    public static String getKey(String path, int maxSize) {
+        return path + "@" + maxSize;
+    }
+
+    /**
+     * Get an image from the memory cache, can be called on the UI thread.
+     * The caller holds a reference to the image and must {@link #release(Bitmap)} it
+     *
+     * @param key the key of the image, see {@link #getKey(String, int)}
+     * @return the image, or null if it is not in memory
+     */
+    public Bitmap acquireFromMemory(String key) {
+        synchronized (references) {
+            Bitmap bitmap = memoryCache.get(key);
+            if (bitmap != null && bitmap.isRecycled()) {
+                memoryCache.remove(key);
+                return null;
+            }
+            if (bitmap != null) {
+                acquire(bitmap);
+            }
+            return bitmap;
+        }
+    }
+
+    /**
+     * Check if an image is in the memory cache, without taking a reference
+     *
+     * @param key the key of the image, see {@link #getKey(String, int)}
+     * @return true if it is in memory
+     */
+    public boolean isInMemory(String key) {
+        return memoryCache.get(key) != null;
+    }
+
+    /**
+     * Take a reference to an image, e.g. while it is shown
+     *
+     * @param bitmap the image
+     */
+    public void acquire(Bitmap bitmap) {
+        synchronized (references) {
+            Integer count = references.get(bitmap);
+            references.put(bitmap, count == null ? 1 : count + 1);
+        }
+    }
+
+    /**
+     * Release a reference to an image, it may be decoded into afterwards
+     *
+     * @param bitmap the image
+     */
+    public void release(Bitmap bitmap) {
+        synchronized (references) {
+            Integer count = references.get(bitmap);
+            if (count == null) {
+                return;
+            }
+            if (count > 1) {
+                references.put(bitmap, count - 1);
+                return;
+            }
+            references.remove(bitmap);
+            if (referencedButEvicted.remove(bitmap)) {
+                bitmapPool.put(bitmap);
+            }
+        }
+    }
+
+    private void onRemovedFromMemory(Bitmap bitmap) {
+        synchronized (references) {
+            if (references.containsKey(bitmap)) {
+                referencedButEvicted.add(bitmap);
+            } else {
+                bitmapPool.put(bitmap);
+            }
+        }
+    }
+
+    /**
+     * Load an image through the cache: memory, then disk, then decoding the original.
+     * The caller holds a reference to the image and must {@link #release(Bitmap)} it.
+     * Must not be called on the UI thread
+     *
+     * @param path    path of the image (asset path or file path)
+     * @param isAsset true if the image is inside the assets
+     * @param maxSize maximal width/height the image is loaded at
+     * @return the image, or null if it could not be loaded
+     */
+    public Bitmap load(String path, boolean isAsset, int maxSize) {
+        String key = getKey(path, maxSize);
+        Bitmap bitmap = acquireFromMemory(key);
+        if (bitmap != null) {
+            return bitmap;
+        }
+
+        // Packed template thumbnails are as cheap to read as the disk cache
+        if (isAsset) {
+            bitmap = Helpers.get().loadTemplateThumbnail(path, bitmapPool);
+        }
+        // Thumbnails of saved memes are pre-scaled already, a disk cache copy would only duplicate them
+        if (bitmap == null && !isAsset && isSavedMemeThumbnail(path)) {
+            bitmap = Helpers.get().loadImageFromFilesystem(path, maxSize, bitmapPool);
+        } else if (bitmap == null) {
+            File diskFile = getDiskFile(key);
+            long sourceModified = isAsset ? 0 : new File(path).lastModified();
+            if (diskFile.isFile() && diskFile.lastModified() >= sourceModified) {
+                bitmap = Helpers.get().loadImageFromFilesystem(diskFile.getAbsolutePath(), maxSize, bitmapPool);
+            }
+            if (bitmap == null) {
+                bitmap = isAsset
+                        ? Helpers.get().loadImageFromAssets(path, maxSize, Bitmap.Config.ARGB_8888, bitmapPool)
+                        : Helpers.get().loadImageFromFilesystem(path, maxSize, bitmapPool);
+                if (bitmap != null) {
+                    writeToDisk(diskFile, bitmap);
+                }
+            }
+        }
+        if (bitmap != null) {
+            synchronized (references) {
+                acquire(bitmap);
+                memoryCache.put(key, bitmap);
+            }
+        }
+        return bitmap;
+    }
+
+    /**
+     * Remove all cached versions of an image, e.g. after it was deleted or overwritten
+     *
+     * @param path    path of the image
+     * @param maxSize maximal width/height the image was loaded at
+     */
+    public void remove(String path, int maxSize) {
+        String key = getKey(path, maxSize);
+        memoryCache.remove(key);
+        synchronized (diskLock) {
+            File diskFile = getDiskFile(key);
+            long length = diskFile.length();
+            if (diskFile.delete() && diskCacheBytes >= 0) {
+                diskCacheBytes -= length;
+            }
+        }
+    }
+
+    /**
+     * Drop all bitmaps from memory, e.g. when the system runs low on memory
+     */
+    public void clearMemory() {
+        memoryCache.evictAll();
+        bitmapPool.clear();
+    }
+
+    private static boolean isSavedMemeThumbnail(String path) {
+        return SavedMemesIndex.get().getThumbnailDir().equals(new File(path).getParentFile());
+    }
+
+    private File getDiskFile(String key) {
+        return new File(diskCacheDir, Helpers.get().md5(key) + "." + DISK_CACHE_PROFILE.getEncoder().getExtension());
+    }
+
+    private void writeToDisk(File diskFile, Bitmap bitmap) {
+        synchronized (diskLock) {
+            if (!diskCacheDir.exists() && !diskCacheDir.mkdirs()) {
+                return;
+            }
+            // Written atomically, a partly written file would be served until it gets trimmed
+            if (!Helpers.get().saveBitmapToFile(diskCacheDir.getAbsolutePath(), diskFile.getName(), bitmap, DISK_CACHE_PROFILE, false).success) {
+                return;
+            }
+            if (diskCacheBytes < 0) {
+                diskCacheBytes = 0;
+                File[] files = diskCacheDir.listFiles();
+                for (File file : files != null ? files : new File[0]) {
+                    diskCacheBytes += file.length();
+                }
+            } else {
+                diskCacheBytes += diskFile.length();
+            }
+            if (diskCacheBytes > DISK_CACHE_MAX_BYTES) {
+                trimDiskCache();
+            }
+        }
+    }
+
+    // Deletes the least recently written files until the cache is at 3/4 of its maximum size
+    private void trimDiskCache() {
+        File[] files = diskCacheDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        final long[] modified = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < files.length; i++) {
+            modified[i] = files[i].lastModified();
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer i1, Integer i2) {
+                return modified[i1] < modified[i2] ? -1 : (modified[i1] == modified[i2] ? 0 : 1);
+            }
+        });
+        for (int i = 0; i < order.length && diskCacheBytes > DISK_CACHE_MAX_BYTES * 3 / 4; i++) {
+            File file = files[order[i]];
+            long length = file.length();
+            if (file.delete()) {
+                diskCacheBytes -= length;
+            }
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package io.github.gsantner.memetastic.util;
+
+import android.graphics.Bitmap;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encodes bitmaps into an image format
+ */
+public class ImageEncoder {
+    public static final ImageEncoder JPEG = new ImageEncoder(Bitmap.CompressFormat.JPEG, "jpg", "image/jpeg", true);
+    public static final ImageEncoder PNG = new ImageEncoder(Bitmap.CompressFormat.PNG, "png", "image/png", false);
+    public static final ImageEncoder WEBP = new ImageEncoder(Bitmap.CompressFormat.WEBP, "webp", "image/webp", true);
+
+    private final Bitmap.CompressFormat format;
+    private final String extension;
+    private final String mimeType;
+    private final boolean lossy;
+
+    protected ImageEncoder(Bitmap.CompressFormat format, String extension, String mimeType, boolean lossy) {
+        this.format = format;
+        this.extension = extension;
+        this.mimeType = mimeType;
+        this.lossy = lossy;
+    }
+
+    /**
+     * Encode the bitmap
+     *
+     * @param bitmap  the bitmap
+     * @param quality quality from 0 to 100, ignored by lossless formats
+     * @param out     stream the image is written to
+     * @throws IOException if the bitmap could not be encoded or written
+     */
+    public void encode(Bitmap bitmap, int quality, OutputStream out) throws IOException {
+        if (!bitmap.compress(format, quality, out)) {
+            throw new IOException("Could not encode bitmap as " + extension);
+        }
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    /**
+     * @return true if the quality changes the size of the image
+     */
+    public boolean isLossy() {
+        return lossy;
+    }
+}
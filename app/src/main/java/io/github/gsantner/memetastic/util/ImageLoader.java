@@ -0,0 +1,287 @@
+package io.github.gsantner.memetastic.util;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.github.gsantner.memetastic.App;
+import io.github.gsantner.memetastic.ui.GridRecycleAdapter;
+
+/**
+ * Loads the images of the grids on a bounded thread pool through the {@link ImageCache}.
+ * Visible positions are loaded first (newest request first), a holder that gets rebound
+ * cancels its previous request and holders showing the same image share one decode.
+ * Every request is tagged with a token of the holder, results for an outdated token are
+ * dropped before they reach the view.
+ * All methods must be called on the UI thread, listeners get called on the UI thread
+ */
+public class ImageLoader {
+    public static interface OnImageLoadedListener {
+        // The bitmap is only valid during the call, see ImageCache#acquire to keep it
+        void onImageLoaded(Bitmap bitmap, GridRecycleAdapter.ViewHolder holder);
+    }
+
+    public static final int PRIORITY_PREFETCH = 0;
+    public static final int PRIORITY_VISIBLE = 1;
+
+    private static final int MAX_POOL_SIZE = 4;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static ImageLoader instance;
+
+    private final ThreadPoolExecutor executor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Map<String, Request> requests = new HashMap<>();
+    private final Map<GridRecycleAdapter.ViewHolder, Request> holderRequests = new HashMap<>();
+    private long sequence = 0;
+    private int nextToken = 0;
+
+    // Metrics, to tune the pool. Only decoded is written by the workers
+    private int requested = 0;
+    private int shared = 0;
+    private int prefetched = 0;
+    private int cancelledBeforeDecode = 0;
+    private final AtomicInteger decoded = new AtomicInteger();
+    private int dropped = 0;
+
+    public static synchronized ImageLoader get() {
+        if (instance == null) {
+            instance = new ImageLoader();
+        }
+        return instance;
+    }
+
+    private ImageLoader() {
+        int poolSize = Math.max(2, Math.min(MAX_POOL_SIZE, Runtime.getRuntime().availableProcessors()));
+        executor = new ThreadPoolExecutor(poolSize, poolSize, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(@NonNull final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "ImageLoader #" + count.incrementAndGet());
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Load an image into a holder, replacing the previous request of the holder
+     *
+     * @param path     path of the image (asset path or file path)
+     * @param isAsset  true if the image is inside the assets
+     * @param maxSize  maximal width/height the image is loaded at
+     * @param priority {@link #PRIORITY_VISIBLE} or {@link #PRIORITY_PREFETCH}
+     * @param holder   the holder the image is loaded for
+     * @param listener gets called with the image (or null if loading failed)
+     */
+    public void load(String path, boolean isAsset, int maxSize, int priority,
+                     GridRecycleAdapter.ViewHolder holder, OnImageLoadedListener listener) {
+        cancel(holder);
+        holder.loadToken = ++nextToken;
+        requested++;
+        Request request = obtainRequest(path, isAsset, maxSize, priority);
+        request.targets.add(new Target(holder, holder.loadToken, listener));
+        holderRequests.put(holder, request);
+    }
+
+    /**
+     * Load an image into the cache without showing it, e.g. for positions that are about to
+     * become visible. Prefetches run after all visible positions
+     *
+     * @param path    path of the image (asset path or file path)
+     * @param isAsset true if the image is inside the assets
+     * @param maxSize maximal width/height the image is loaded at
+     */
+    public void prefetch(String path, boolean isAsset, int maxSize) {
+        String key = ImageCache.getKey(path, maxSize);
+        if (!requests.containsKey(key) && !ImageCache.get().isInMemory(key)) {
+            obtainRequest(path, isAsset, maxSize, PRIORITY_PREFETCH).prefetch = true;
+            prefetched++;
+        }
+    }
+
+    /**
+     * Cancel all prefetches that did not start yet and no holder waits for,
+     * e.g. when the shown images change completely
+     */
+    public void cancelPrefetches() {
+        for (Iterator<Request> iterator = requests.values().iterator(); iterator.hasNext(); ) {
+            Request request = iterator.next();
+            if (request.prefetch && request.targets.isEmpty() && executor.remove(request)) {
+                request.cancelled = true;
+                cancelledBeforeDecode++;
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Cancel the pending request of a holder, e.g. when it gets rebound or recycled.
+     * The decode itself is only cancelled if no other holder waits for the same image
+     *
+     * @param holder the holder
+     */
+    public void cancel(GridRecycleAdapter.ViewHolder holder) {
+        // Invalidates results that are already on their way
+        holder.loadToken = ++nextToken;
+        Request request = holderRequests.remove(holder);
+        if (request == null) {
+            return;
+        }
+        for (int i = request.targets.size() - 1; i >= 0; i--) {
+            if (request.targets.get(i).holder == holder) {
+                request.targets.remove(i);
+            }
+        }
+        if (request.targets.isEmpty() && !request.prefetch) {
+            request.cancelled = true;
+            if (executor.remove(request)) {
+                cancelledBeforeDecode++;
+            }
+            requests.remove(request.key);
+        }
+    }
+
+    // Returns the pending request for the image, or queues a new one
+    private Request obtainRequest(String path, boolean isAsset, int maxSize, int priority) {
+        String key = ImageCache.getKey(path, maxSize);
+        Request request = requests.get(key);
+        if (request != null && !request.cancelled) {
+            // Raise the priority of a request that has not started yet
+            if (priority > request.priority && executor.remove(request)) {
+                request.priority = priority;
+                request.sequence = ++sequence;
+                executor.execute(request);
+            }
+            shared++;
+            return request;
+        }
+        request = new Request(key, path, isAsset, maxSize, priority, ++sequence);
+        requests.put(key, request);
+        executor.execute(request);
+        return request;
+    }
+
+    // Called on the UI thread when a decode has finished
+    private void deliver(Request request, Bitmap bitmap) {
+        if (requests.get(request.key) == request) {
+            requests.remove(request.key);
+        }
+        int delivered = 0;
+        for (Target target : request.targets) {
+            if (holderRequests.get(target.holder) == request) {
+                holderRequests.remove(target.holder);
+            }
+            if (!request.cancelled && target.holder.loadToken == target.token) {
+                target.listener.onImageLoaded(bitmap, target.holder);
+                delivered++;
+            }
+        }
+        if (delivered == 0 && !request.prefetch) {
+            dropped++;
+        }
+        request.targets.clear();
+        // The listeners took their own references
+        if (bitmap != null) {
+            ImageCache.get().release(bitmap);
+        }
+    }
+
+    /**
+     * Write the metrics of the loader to the log
+     */
+    public void logStats() {
+        App.log("ImageLoader: pool " + executor.getMaximumPoolSize() + ", requested " + requested
+                + ", prefetched " + prefetched + ", shared " + shared + ", cancelled " + cancelledBeforeDecode
+                + ", decoded " + decoded.get() + ", dropped " + dropped
+                + ", bitmaps " + BitmapPool.get().getStats());
+    }
+
+    public int getDroppedCount() {
+        return dropped;
+    }
+
+    public int getDecodedCount() {
+        return decoded.get();
+    }
+
+    private static class Target {
+        final GridRecycleAdapter.ViewHolder holder;
+        final int token;
+        final OnImageLoadedListener listener;
+
+        Target(GridRecycleAdapter.ViewHolder holder, int token, OnImageLoadedListener listener) {
+            this.holder = holder;
+            this.token = token;
+            this.listener = listener;
+        }
+    }
+
+    /**
+     * A queued decode, ordered by priority and then newest first
+     */
+    private class Request implements Runnable, Comparable<Request> {
+        final String key;
+        final String path;
+        final boolean isAsset;
+        final int maxSize;
+        final List<Target> targets = new ArrayList<>();
+        volatile int priority;
+        volatile long sequence;
+        volatile boolean cancelled;
+        // Loaded for the cache only, stays queued without holders
+        boolean prefetch;
+
+        Request(String key, String path, boolean isAsset, int maxSize, int priority, long sequence) {
+            this.key = key;
+            this.path = path;
+            this.isAsset = isAsset;
+            this.maxSize = maxSize;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            if (cancelled) {
+                return;
+            }
+            final Bitmap bitmap = ImageCache.get().load(path, isAsset, maxSize);
+            decoded.incrementAndGet();
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    deliver(Request.this, bitmap);
+                }
+            });
+        }
+
+        @Override
+        public int compareTo(@NonNull Request other) {
+            if (priority != other.priority) {
+                return priority > other.priority ? -1 : 1;
+            }
+            return sequence > other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package io.github.gsantner.memetastic.util;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import io.github.gsantner.memetastic.App;
+import io.github.gsantner.memetastic.data.MemeSetting;
+
+/**
+ * Renders memes in export quality. The source image is decoded in horizontal strips with a
+ * {@link BitmapRegionDecoder} and drawn (scaled and rotated) straight into the export bitmap,
+ * so besides the result only one strip of the source is in memory at a time
+ */
+public class MemeExporter {
+    public static interface Source {
+        InputStream open() throws IOException;
+    }
+
+    // Height of a decoded strip, in pixels of the subsampled source
+    private static final int STRIP_HEIGHT = 256;
+
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG | Paint.DITHER_FLAG);
+
+    /**
+     * Render the meme with the image of the source
+     *
+     * @param source            the source image
+     * @param memeSetting       the meme to render (captions, rotation, ...)
+     * @param sourceRotationDeg rotation needed to show the source upright (e.g. from EXIF)
+     * @param maxSize           maximal width/height of the result
+     * @return the rendered meme, or null if the source could not be decoded
+     */
+    public Bitmap export(Source source, MemeSetting memeSetting, int sourceRotationDeg, int maxSize) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        InputStream is = null;
+        try {
+            is = source.open();
+            BitmapFactory.decodeStream(is, null, options);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            close(is);
+        }
+        int srcWidth = options.outWidth;
+        int srcHeight = options.outHeight;
+        if (srcWidth <= 0 || srcHeight <= 0) {
+            return null;
+        }
+
+        // Exact target size, subsampled decode stays at or above it
+        float scale = Math.min(1f, 1f * maxSize / Math.max(srcWidth, srcHeight));
+        int sampleSize = 1;
+        while (srcWidth / (sampleSize * 2) >= srcWidth * scale && srcHeight / (sampleSize * 2) >= srcHeight * scale) {
+            sampleSize *= 2;
+        }
+        int rotationDeg = (((sourceRotationDeg + memeSetting.getRotationDeg()) % 360) + 360) % 360;
+        boolean swap = rotationDeg == 90 || rotationDeg == 270;
+        int width = Math.max(1, Math.round(srcWidth * scale));
+        int height = Math.max(1, Math.round(srcHeight * scale));
+        Bitmap result = Bitmap.createBitmap(swap ? height : width, swap ? width : height, Bitmap.Config.ARGB_8888);
+
+        // Maps source coordinates to the result
+        Matrix sourceToResult = new Matrix();
+        sourceToResult.postScale(1f * width / srcWidth, 1f * height / srcHeight);
+        sourceToResult.postRotate(rotationDeg);
+        switch (rotationDeg) {
+            case 90:
+                sourceToResult.postTranslate(height, 0);
+                break;
+            case 180:
+                sourceToResult.postTranslate(width, height);
+                break;
+            case 270:
+                sourceToResult.postTranslate(0, width);
+                break;
+        }
+
+        Canvas canvas = new Canvas(result);
+        if (!drawStrips(source, canvas, sourceToResult, srcWidth, srcHeight, sampleSize)) {
+            // Region decoding is not supported for all formats, decode the whole image instead
+            options = new BitmapFactory.Options();
+            options.inSampleSize = sampleSize;
+            Bitmap bitmap = null;
+            try {
+                is = source.open();
+                bitmap = BitmapFactory.decodeStream(is, null, options);
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                close(is);
+            }
+            if (bitmap == null) {
+                result.recycle();
+                return null;
+            }
+            Matrix matrix = new Matrix(sourceToResult);
+            matrix.preScale(1f * srcWidth / bitmap.getWidth(), 1f * srcHeight / bitmap.getHeight());
+            canvas.drawBitmap(bitmap, matrix, paint);
+            bitmap.recycle();
+        }
+
+        new MemeRenderer().drawCaptions(result, memeSetting);
+        return result;
+    }
+
+    // Decode and draw the source strip by strip, returns false if region decoding is not possible
+    private boolean drawStrips(Source source, Canvas canvas, Matrix sourceToResult, int srcWidth, int srcHeight, int sampleSize) {
+        BitmapRegionDecoder decoder = null;
+        InputStream is = null;
+        try {
+            is = source.open();
+            decoder = BitmapRegionDecoder.newInstance(is, false);
+        } catch (IOException e) {
+            App.log("MemeExporter: No region decoding, " + e.getMessage());
+            return false;
+        } finally {
+            close(is);
+        }
+        if (decoder == null) {
+            return false;
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        Rect region = new Rect();
+        Matrix matrix = new Matrix();
+        int stripHeight = STRIP_HEIGHT * sampleSize;
+        try {
+            for (int top = 0; top < srcHeight; top += stripHeight) {
+                region.set(0, top, srcWidth, Math.min(srcHeight, top + stripHeight));
+                Bitmap strip = decoder.decodeRegion(region, options);
+                if (strip == null) {
+                    return false;
+                }
+                matrix.set(sourceToResult);
+                matrix.preTranslate(0, top);
+                matrix.preScale(1f * region.width() / strip.getWidth(), 1f * region.height() / strip.getHeight());
+                canvas.drawBitmap(strip, matrix, paint);
+                strip.recycle();
+            }
+        } finally {
+            decoder.recycle();
+        }
+        return true;
+    }
+
+    private static void close(InputStream is) {
+        if (is != null) {
+            try {
+                is.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package io.github.gsantner.memetastic.util;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+
+import io.github.gsantner.memetastic.App;
+import io.github.gsantner.memetastic.data.MemeSetting;
+
+/**
+ * Renders memes on a background thread. Bursts of changes are coalesced into the latest
+ * state, so at most one frame is rendered at a time and frames are capped per second.
+ * Only the newest frame gets published to the UI thread
+ */
+public class MemeRenderScheduler implements MemeSetting.OnMemeSettingChangedListener {
+    public static interface OnFrameRenderedListener {
+        void onFrameRendered(Bitmap bitmap);
+    }
+
+    public static final int MAX_FRAMES_PER_SECOND = 30;
+    private static final long MIN_FRAME_INTERVAL_MS = 1000 / MAX_FRAMES_PER_SECOND;
+
+    private final Object lock = new Object();
+    private final MemeRenderer renderer = new MemeRenderer(2);
+    private final OnFrameRenderedListener listener;
+    private final HandlerThread workerThread;
+    private final Handler workerHandler;
+    private final Handler mainHandler;
+
+    // Guarded by lock
+    private MemeSetting pendingSetting;
+    private boolean frameInFlight;
+    private long lastFrameTime;
+    private int framesRendered;
+    private int framesDropped;
+
+    private boolean released = false;
+
+    /**
+     * Create a new scheduler, must be called on the UI thread
+     *
+     * @param listener gets called on the UI thread with every rendered frame
+     */
+    public MemeRenderScheduler(OnFrameRenderedListener listener) {
+        this.listener = listener;
+        mainHandler = new Handler(Looper.getMainLooper());
+        workerThread = new HandlerThread("MemeRenderer", Process.THREAD_PRIORITY_DISPLAY);
+        workerThread.start();
+        workerHandler = new Handler(workerThread.getLooper());
+    }
+
+    @Override
+    public void onMemeSettingChanged(MemeSetting memeSetting) {
+        synchronized (lock) {
+            if (released) {
+                return;
+            }
+            if (pendingSetting != null) {
+                framesDropped++;
+            }
+            pendingSetting = memeSetting.copy();
+            if (!frameInFlight) {
+                scheduleFrameLocked();
+            }
+        }
+    }
+
+    // Only one frame is rendered or waiting to be shown at a time, so the renderer never
+    // paints into the buffer that is currently displayed
+    private void scheduleFrameLocked() {
+        frameInFlight = true;
+        long delay = lastFrameTime + MIN_FRAME_INTERVAL_MS - SystemClock.uptimeMillis();
+        workerHandler.postDelayed(renderFrame, Math.max(0, delay));
+    }
+
+    private final Runnable renderFrame = new Runnable() {
+        @Override
+        public void run() {
+            MemeSetting memeSetting;
+            synchronized (lock) {
+                memeSetting = pendingSetting;
+                pendingSetting = null;
+                if (memeSetting == null || released) {
+                    frameInFlight = false;
+                    return;
+                }
+                lastFrameTime = SystemClock.uptimeMillis();
+            }
+
+            final Bitmap bitmap = renderer.render(memeSetting);
+            synchronized (lock) {
+                framesRendered++;
+            }
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    publishFrame(bitmap);
+                }
+            });
+        }
+    };
+
+    private void publishFrame(Bitmap bitmap) {
+        synchronized (lock) {
+            if (released) {
+                return;
+            }
+        }
+        listener.onFrameRendered(bitmap);
+        synchronized (lock) {
+            frameInFlight = false;
+            if (pendingSetting != null) {
+                scheduleFrameLocked();
+            }
+        }
+    }
+
+    /**
+     * Stop rendering and free all buffers. Waits for a frame that is currently rendered,
+     * so the images of the meme can be recycled safely afterwards
+     */
+    public void release() {
+        synchronized (lock) {
+            if (released) {
+                return;
+            }
+            released = true;
+            pendingSetting = null;
+            App.log("MemeRenderScheduler: rendered " + framesRendered + " frames, dropped " + framesDropped);
+        }
+        workerHandler.removeCallbacks(renderFrame);
+        workerHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                renderer.release();
+                workerThread.quit();
+            }
+        });
+        try {
+            workerThread.join();
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    public int getFramesRendered() {
+        synchronized (lock) {
+            return framesRendered;
+        }
+    }
+
+    public int getFramesDropped() {
+        synchronized (lock) {
+            return framesDropped;
+        }
+    }
+}
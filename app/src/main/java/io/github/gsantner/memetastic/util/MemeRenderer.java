@@ -0,0 +1,313 @@
+package io.github.gsantner.memetastic.util;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+import android.text.Layout;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.util.LruCache;
+
+import io.github.gsantner.memetastic.data.MemeLibConfig;
+import io.github.gsantner.memetastic.data.MemeSetting;
+
+/**
+ * Renders the captions of a meme onto a reusable output bitmap.
+ * The rotated display image of the meme is the base layer, and only the caption bands
+ * that changed since the last render are restored from it and painted again
+ */
+public class MemeRenderer {
+    private static final int LAYOUT_CACHE_SIZE = 16;
+
+    private final LayoutCache layoutCache = new LayoutCache(LAYOUT_CACHE_SIZE);
+    private final Frame[] frames;
+    private int nextFrame = 0;
+
+    /**
+     * Create a renderer with a single output buffer
+     */
+    public MemeRenderer() {
+        this(1);
+    }
+
+    /**
+     * Create a renderer which cycles through multiple output buffers, so a frame can be shown
+     * while the next one gets rendered
+     *
+     * @param bufferCount count of output buffers
+     */
+    public MemeRenderer(int bufferCount) {
+        frames = new Frame[bufferCount];
+        for (int i = 0; i < bufferCount; i++) {
+            frames[i] = new Frame();
+        }
+    }
+
+    /**
+     * Render the meme, the returned bitmap is owned by the renderer and reused by later calls
+     *
+     * @param memeSetting the meme to render
+     * @return the rendered meme
+     */
+    public Bitmap render(MemeSetting memeSetting) {
+        Bitmap baseImage = memeSetting.getRotatedDisplayImage();
+        Frame frame = frames[nextFrame];
+        nextFrame = (nextFrame + 1) % frames.length;
+        if (frame.prepare(baseImage)) {
+            frame.canvas.drawBitmap(baseImage, 0, 0, null);
+        }
+
+        Caption[] captions = createCaptions(memeSetting, baseImage.getWidth(), baseImage.getHeight());
+
+        // Restore and repaint every band whose caption changed (old and new position)
+        for (int i = 0; i < captions.length; i++) {
+            if (!captions[i].equals(frame.drawnCaptions[i])) {
+                if (frame.drawnCaptions[i] != null) {
+                    repaintBand(frame, frame.drawnCaptions[i].bounds, captions);
+                }
+                repaintBand(frame, captions[i].bounds, captions);
+            }
+        }
+        System.arraycopy(captions, 0, frame.drawnCaptions, 0, captions.length);
+        return frame.bitmap;
+    }
+
+    /**
+     * Draw the captions of the meme directly onto a mutable bitmap which already contains the image
+     *
+     * @param bitmap      the bitmap to draw on
+     * @param memeSetting the meme to render
+     */
+    public void drawCaptions(Bitmap bitmap, MemeSetting memeSetting) {
+        Canvas canvas = new Canvas(bitmap);
+        for (Caption caption : createCaptions(memeSetting, bitmap.getWidth(), bitmap.getHeight())) {
+            if (!caption.bounds.isEmpty()) {
+                caption.draw(canvas);
+            }
+        }
+    }
+
+    /**
+     * Release all bitmaps held by the renderer
+     */
+    public void release() {
+        for (Frame frame : frames) {
+            frame.release();
+        }
+        layoutCache.evictAll();
+    }
+
+    private Caption[] createCaptions(MemeSetting memeSetting, int width, int height) {
+        float scale = Helpers.get().getScalingFactorInPixelsForWritingOnPicture(width, height);
+        String[] textStrings = {memeSetting.getCaptionTop(), memeSetting.getCaptionBottom()};
+        Caption[] captions = new Caption[textStrings.length];
+        for (int i = 0; i < textStrings.length; i++) {
+            captions[i] = new Caption(i == 0, textStrings[i], memeSetting, scale, width, height, layoutCache);
+        }
+        return captions;
+    }
+
+    // Restores the band from the base layer and draws all captions that intersect it
+    private void repaintBand(Frame frame, Rect band, Caption[] captions) {
+        if (band.isEmpty()) {
+            return;
+        }
+        Canvas canvas = frame.canvas;
+        canvas.save();
+        canvas.clipRect(band);
+        canvas.drawBitmap(frame.drawnBase, band, band, null);
+        for (Caption caption : captions) {
+            if (Rect.intersects(caption.bounds, band)) {
+                caption.draw(canvas);
+            }
+        }
+        canvas.restore();
+    }
+
+    /**
+     * An output buffer and the state that was painted into it
+     */
+    private static class Frame {
+        final Caption[] drawnCaptions = new Caption[2];
+        Bitmap drawnBase;
+        Bitmap bitmap;
+        Canvas canvas;
+
+        // Returns true if the whole frame needs to be painted again
+        boolean prepare(Bitmap baseImage) {
+            if (baseImage == drawnBase && bitmap != null && !bitmap.isRecycled()) {
+                return false;
+            }
+            Bitmap.Config bitmapConfig = baseImage.getConfig();
+            // set default bitmap config if none
+            if (bitmapConfig == null) {
+                bitmapConfig = Bitmap.Config.RGB_565;
+            }
+            if (bitmap == null || bitmap.isRecycled() || bitmap.getWidth() != baseImage.getWidth()
+                    || bitmap.getHeight() != baseImage.getHeight() || bitmap.getConfig() != bitmapConfig) {
+                release();
+                bitmap = Bitmap.createBitmap(baseImage.getWidth(), baseImage.getHeight(), bitmapConfig);
+                canvas = new Canvas(bitmap);
+            }
+            drawnBase = baseImage;
+            drawnCaptions[0] = drawnCaptions[1] = null;
+            return true;
+        }
+
+        void release() {
+            if (bitmap != null && !bitmap.isRecycled()) {
+                bitmap.recycle();
+            }
+            bitmap = null;
+            canvas = null;
+            drawnBase = null;
+            drawnCaptions[0] = drawnCaptions[1] = null;
+        }
+    }
+
+    /**
+     * A single caption as it is placed on the image
+     */
+    private static class Caption {
+        final String text;
+        final Typeface typeface;
+        final float textSize;
+        final float strokeWidth;
+        final int textWidth;
+        final int textColor;
+        final int borderColor;
+        final boolean isTop;
+        final float x;
+        final float y;
+        final Rect bounds = new Rect();
+        final StaticLayout layout;
+
+        Caption(boolean isTop, String text, MemeSetting memeSetting, float scale, int width, int height, LayoutCache layoutCache) {
+            this.isTop = isTop;
+            this.text = memeSetting.isAllCaps() ? text.toUpperCase() : text;
+            typeface = memeSetting.getFont().getFont();
+            textSize = (int) (memeSetting.getFontSize() * scale);
+            strokeWidth = scale * memeSetting.getFontSize() / MemeLibConfig.FONT_SIZES.DEFAULT;
+            textColor = memeSetting.getTextColor();
+            borderColor = memeSetting.getBorderColor();
+
+            // set text width to canvas width minus 16dp padding
+            textWidth = width - (int) (16 * scale);
+
+            layout = layoutCache.obtain(text, memeSetting.isAllCaps(), typeface, textSize, textWidth);
+
+            // get position of text's top left corner
+            int textHeight = layout.getHeight();
+            x = (width - textWidth) / 2;
+            y = isTop ? height / 15 : height - textHeight;
+
+            // Band covers the full width, with room for the border and glyph overhang
+            int margin = (int) Math.ceil(strokeWidth + textSize / 4);
+            if (!this.text.isEmpty()) {
+                bounds.set(0, (int) y - margin, width, (int) y + textHeight + margin);
+                if (!bounds.intersect(0, 0, width, height)) {
+                    bounds.setEmpty();
+                }
+            }
+        }
+
+        // Stroke and fill pass share the same layout, only the paint changes
+        void draw(Canvas canvas) {
+            TextPaint layoutPaint = layout.getPaint();
+            canvas.save();
+            canvas.translate(x, y);
+            layoutPaint.setStrokeWidth(strokeWidth);
+
+            // border pass
+            layoutPaint.setColor(borderColor);
+            layoutPaint.setStyle(Paint.Style.FILL_AND_STROKE);
+            layout.draw(canvas);
+
+            // text pass
+            layoutPaint.setColor(textColor);
+            layoutPaint.setStyle(Paint.Style.FILL);
+            layout.draw(canvas);
+            canvas.restore();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Caption)) {
+                return false;
+            }
+            Caption c = (Caption) o;
+            return isTop == c.isTop && text.equals(c.text) && typeface == c.typeface
+                    && textSize == c.textSize && strokeWidth == c.strokeWidth
+                    && textWidth == c.textWidth && textColor == c.textColor
+                    && borderColor == c.borderColor && bounds.equals(c.bounds);
+        }
+
+        @Override
+        public int hashCode() {
+            return text.hashCode() * 31 + textColor;
+        }
+    }
+
+    /**
+     * Caches measured text layouts, so changes of color, border or rotation and the
+     * border and text pass of a caption re-use the line breaking.
+     * Keyed by text, typeface, text size, width and all caps
+     */
+    private static class LayoutCache extends LruCache<LayoutCache.Key, StaticLayout> {
+        LayoutCache(int maxSize) {
+            super(maxSize);
+        }
+
+        StaticLayout obtain(String text, boolean allCaps, Typeface typeface, float textSize, int width) {
+            Key key = new Key(text, allCaps, typeface, textSize, width);
+            StaticLayout layout = get(key);
+            if (layout == null) {
+                TextPaint paint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+                paint.setTextSize(textSize);
+                paint.setTypeface(typeface);
+                layout = new StaticLayout(allCaps ? text.toUpperCase() : text, paint, width,
+                        Layout.Alignment.ALIGN_CENTER, 1.0f, 0.0f, false);
+                put(key, layout);
+            }
+            return layout;
+        }
+
+        static class Key {
+            final String text;
+            final boolean allCaps;
+            final Typeface typeface;
+            final float textSize;
+            final int width;
+
+            Key(String text, boolean allCaps, Typeface typeface, float textSize, int width) {
+                this.text = text;
+                this.allCaps = allCaps;
+                this.typeface = typeface;
+                this.textSize = textSize;
+                this.width = width;
+            }
+
+            @Override
+            public boolean equals(Object o) {
+                if (!(o instanceof Key)) {
+                    return false;
+                }
+                Key k = (Key) o;
+                return allCaps == k.allCaps && typeface == k.typeface && textSize == k.textSize
+                        && width == k.width && text.equals(k.text);
+            }
+
+            @Override
+            public int hashCode() {
+                int result = text.hashCode();
+                result = 31 * result + (allCaps ? 1 : 0);
+                result = 31 * result + (typeface != null ? typeface.hashCode() : 0);
+                result = 31 * result + Float.floatToIntBits(textSize);
+                result = 31 * result + width;
+                return result;
+            }
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package io.github.gsantner.memetastic.util;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+
+import java.io.File;
+
+import io.github.gsantner.memetastic.App;
+import io.github.gsantner.memetastic.data.MemeLibConfig;
+import io.github.gsantner.memetastic.data.SavedMemesIndex;
+
+/**
+ * Saves memes in the background, one after another. A job renders the meme from a snapshot
+ * taken on the UI thread, writes meme and thumbnail to temporary files which are renamed
+ * when complete and updates the {@link SavedMemesIndex}. Jobs keep running when the activity
+ * that queued them is finished. A meme whose content is already saved is not saved again
+ */
+public class MemeSaveQueue {
+    public static interface Renderer {
+        // Called on the save thread, the result is owned by the queue
+        Bitmap render();
+
+        // Called on the save thread, hash of everything the meme is rendered from,
+        // including the content of the source image. Null if it cannot be identified
+        String getContentHash();
+    }
+
+    public static interface OnMemeSavedListener {
+        // Called on the UI thread
+        void onMemeSaved(String filename, boolean success);
+    }
+
+    public static interface OnSavedMemeFoundListener {
+        // Called on the UI thread, with null if the meme is not saved
+        void onSavedMemeFound(File file);
+    }
+
+    private static MemeSaveQueue instance;
+
+    private final Handler saveHandler;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    public static synchronized MemeSaveQueue get() {
+        if (instance == null) {
+            instance = new MemeSaveQueue();
+        }
+        return instance;
+    }
+
+    private MemeSaveQueue() {
+        HandlerThread saveThread = new HandlerThread("MemeSaveQueue", Process.THREAD_PRIORITY_BACKGROUND);
+        saveThread.start();
+        saveHandler = new Handler(saveThread.getLooper());
+    }
+
+    /**
+     * Queue a meme to be saved to the folder of the saved memes
+     *
+     * @param filename filename of the meme, an existing meme with this name is replaced
+     * @param renderer renders the meme, must not depend on state of the activity
+     * @param listener gets notified when the meme is saved, with the filename of the already
+     *                 saved meme if the content was saved before, may be null
+     */
+    public void save(final String filename, final Renderer renderer, final OnMemeSavedListener listener) {
+        saveHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                // Checked when the job runs, so it also finds saves that were queued before
+                String hash = renderer.getContentHash();
+                final String contentHash = hash != null ? hash : "";
+                SavedMemesIndex.Entry saved = contentHash.isEmpty() ? null : SavedMemesIndex.get().findByContentHash(contentHash);
+                final String savedFilename;
+                final boolean success;
+                if (saved != null && saved.hasThumbnail) {
+                    App.log("MemeSaveQueue: " + filename + " is already saved as " + saved.name);
+                    savedFilename = saved.name;
+                    success = true;
+                } else {
+                    savedFilename = filename;
+                    success = saveNow(filename, contentHash, renderer);
+                }
+                if (listener != null) {
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            listener.onMemeSaved(savedFilename, success);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    /**
+     * Look up a saved meme by its content. Runs after the saves queued before,
+     * so a meme that is just being saved is found too
+     *
+     * @param renderer renderer of the meme
+     * @param listener gets the saved file
+     */
+    public void findSaved(final Renderer renderer, final OnSavedMemeFoundListener listener) {
+        saveHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                String contentHash = renderer.getContentHash();
+                SavedMemesIndex index = SavedMemesIndex.get();
+                SavedMemesIndex.Entry saved = contentHash != null ? index.findByContentHash(contentHash) : null;
+                final File file = saved != null ? new File(index.getPictureDir(), saved.name) : null;
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onSavedMemeFound(file);
+                    }
+                });
+            }
+        });
+    }
+
+    private boolean saveNow(String filename, String contentHash, Renderer renderer) {
+        long start = System.currentTimeMillis();
+        Bitmap bitmap = renderer.render();
+        if (bitmap == null) {
+            return false;
+        }
+        long renderMillis = System.currentTimeMillis() - start;
+        SavedMemesIndex index = SavedMemesIndex.get();
+        SaveResult meme = Helpers.get().saveBitmapToFile(index.getPictureDir().getAbsolutePath(), filename, bitmap, EncodeProfile.ARCHIVE, true);
+        SaveResult thumb = null;
+        if (meme.success) {
+            Bitmap thumbnail = Helpers.get().createThumbnail(bitmap);
+            thumb = Helpers.get().saveBitmapToFile(index.getThumbnailDir().getAbsolutePath(), filename, thumbnail, EncodeProfile.THUMBNAIL, false);
+            if (thumbnail != bitmap) {
+                thumbnail.recycle();
+            }
+        }
+        bitmap.recycle();
+        boolean saved = meme.success && thumb.success;
+        if (saved) {
+            index.onMemeSaved(filename, contentHash);
+        }
+        // A meme saved again under its filename must not be shown with its old thumbnail
+        if (thumb != null) {
+            ImageCache.get().remove(thumb.file.getAbsolutePath(), MemeLibConfig.MEME_SHOWCASE_GRID_MAX_IMAGESIZE);
+        }
+        App.log("MemeSaveQueue: render " + renderMillis + "ms, meme " + meme + ", thumbnail " + thumb);
+        return saved;
+    }
+
+    /**
+     * Check if a file in the folder of the saved memes is a saved meme, and not
+     * a temporary or other hidden file
+     *
+     * @param filename the filename
+     * @return true if it is a saved meme
+     */
+    public static boolean isSavedMemeFilename(String filename) {
+        return !filename.startsWith(".");
+    }
+}
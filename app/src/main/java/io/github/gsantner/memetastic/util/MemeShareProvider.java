@@ -0,0 +1,209 @@
+package io.github.gsantner.memetastic.util;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.provider.OpenableColumns;
+import android.webkit.MimeTypeMap;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.github.gsantner.memetastic.App;
+import io.github.gsantner.memetastic.data.SavedMemesIndex;
+
+/**
+ * Provides memes to other apps. Saved memes are served from their file as they are,
+ * memes that are not saved are rendered when the other app opens them and streamed
+ * through a pipe, so nothing is encoded before it is needed or written to storage
+ */
+public class MemeShareProvider extends ContentProvider {
+    private static final String AUTHORITY_SUFFIX = ".shareprovider";
+    private static final String PATH_SAVED = "saved";
+    private static final String PATH_RENDER = "render";
+    // Renderers are kept for the latest shares, other apps may open a meme more than once
+    private static final int MAX_RENDERERS = 4;
+
+    private static final Map<String, MemeSaveQueue.Renderer> renderers = new LinkedHashMap<String, MemeSaveQueue.Renderer>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, MemeSaveQueue.Renderer> eldest) {
+            return size() > MAX_RENDERERS;
+        }
+    };
+
+    /**
+     * Get the uri of a saved meme (or its thumbnail)
+     *
+     * @param context the context
+     * @param file    a file inside the folder of the saved memes
+     * @return the uri, or null if the file is not inside the folder
+     */
+    public static Uri getUriForSavedFile(Context context, File file) {
+        String relativePath = getRelativePath(SavedMemesIndex.get().getPictureDir(), file);
+        if (relativePath == null) {
+            return null;
+        }
+        return getBaseUri(context).buildUpon().appendPath(PATH_SAVED).appendEncodedPath(Uri.encode(relativePath, "/")).build();
+    }
+
+    /**
+     * Get an uri for a meme that is rendered when another app opens it
+     *
+     * @param context  the context
+     * @param filename the name the other app sees
+     * @param renderer renders the meme, must not depend on state of the activity
+     * @return the uri
+     */
+    public static Uri getUriForRenderer(Context context, String filename, MemeSaveQueue.Renderer renderer) {
+        synchronized (renderers) {
+            renderers.put(filename, renderer);
+        }
+        return getBaseUri(context).buildUpon().appendPath(PATH_RENDER).appendPath(filename).build();
+    }
+
+    // Follows the application id, like the authority in the manifest
+    private static Uri getBaseUri(Context context) {
+        return new Uri.Builder().scheme("content").authority(context.getPackageName() + AUTHORITY_SUFFIX).build();
+    }
+
+    @Override
+    public boolean onCreate() {
+        return true;
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        String extension = MimeTypeMap.getFileExtensionFromUrl(uri.getLastPathSegment());
+        String type = MimeTypeMap.getSingleton().getMimeTypeFromExtension(extension);
+        if (type == null && PATH_RENDER.equals(getKind(uri))) {
+            type = EncodeProfile.SHARE.getEncoder().getMimeType();
+        }
+        return type;
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        if (projection == null) {
+            projection = new String[]{OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE};
+        }
+        File file = getSavedFile(uri);
+        MatrixCursor cursor = new MatrixCursor(projection, 1);
+        Object[] row = new Object[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            if (OpenableColumns.DISPLAY_NAME.equals(projection[i])) {
+                row[i] = uri.getLastPathSegment();
+            } else if (OpenableColumns.SIZE.equals(projection[i])) {
+                // Size of a streamed meme is not known before it is rendered
+                row[i] = file != null ? file.length() : null;
+            }
+        }
+        cursor.addRow(row);
+        return cursor;
+    }
+
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("Memes can only be read: " + uri);
+        }
+        if (PATH_SAVED.equals(getKind(uri))) {
+            File file = getSavedFile(uri);
+            if (file == null || !file.isFile()) {
+                throw new FileNotFoundException("No saved meme: " + uri);
+            }
+            return ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+        }
+
+        final MemeSaveQueue.Renderer renderer;
+        synchronized (renderers) {
+            renderer = renderers.get(uri.getLastPathSegment());
+        }
+        if (renderer == null) {
+            throw new FileNotFoundException("Meme is not shared anymore: " + uri);
+        }
+        final ParcelFileDescriptor[] pipe;
+        try {
+            pipe = ParcelFileDescriptor.createPipe();
+        } catch (IOException e) {
+            throw new FileNotFoundException("Could not create pipe: " + e.getMessage());
+        }
+
+        // The reader may block on the pipe, so every stream gets its own thread
+        new Thread("MemeShareProvider") {
+            public void run() {
+                OutputStream out = new ParcelFileDescriptor.AutoCloseOutputStream(pipe[1]);
+                long start = System.currentTimeMillis();
+                Bitmap bitmap = renderer.render();
+                try {
+                    if (bitmap != null) {
+                        EncodeProfile.SHARE.encode(bitmap, out);
+                    }
+                } catch (IOException e) {
+                    // Usually the other app closed the pipe
+                    App.log("MemeShareProvider: " + e.getMessage());
+                } finally {
+                    if (bitmap != null) {
+                        bitmap.recycle();
+                    }
+                    try {
+                        out.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+                App.log("MemeShareProvider: streamed in " + (System.currentTimeMillis() - start) + "ms");
+            }
+        }.start();
+        return pipe[0];
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+        throw new UnsupportedOperationException("Memes can only be read");
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("Memes can only be read");
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("Memes can only be read");
+    }
+
+    private static String getKind(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        return segments.isEmpty() ? null : segments.get(0);
+    }
+
+    // Returns the saved file of the uri, or null if it is not inside the folder of the saved memes
+    private static File getSavedFile(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        if (segments.size() < 2 || !PATH_SAVED.equals(segments.get(0))) {
+            return null;
+        }
+        File pictureDir = SavedMemesIndex.get().getPictureDir();
+        File file = new File(pictureDir, uri.getPath().substring(PATH_SAVED.length() + 2));
+        return getRelativePath(pictureDir, file) != null ? file : null;
+    }
+
+    private static String getRelativePath(File dir, File file) {
+        try {
+            String dirPath = dir.getCanonicalPath() + File.separator;
+            String filePath = file.getCanonicalPath();
+            return filePath.startsWith(dirPath) ? filePath.substring(dirPath.length()) : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package io.github.gsantner.memetastic.util;
+
+import java.io.File;
+
+/**
+ * Result of writing an image to a file, with the size and the time spent in encoding and writing
+ */
+public class SaveResult {
+    public final File file;
+    public final boolean success;
+    public final long bytesWritten;
+    public final long encodeMillis;
+    public final long writeMillis;
+
+    public SaveResult(File file, boolean success, long bytesWritten, long encodeMillis, long writeMillis) {
+        this.file = file;
+        this.success = success;
+        this.bytesWritten = bytesWritten;
+        this.encodeMillis = encodeMillis;
+        this.writeMillis = writeMillis;
+    }
+
+    @Override
+    public String toString() {
+        return file.getName() + (success ? "" : " (failed)") + ": " + (bytesWritten / 1024) + "KB, encode "
+                + encodeMillis + "ms, write " + writeMillis + "ms";
+    }
+}
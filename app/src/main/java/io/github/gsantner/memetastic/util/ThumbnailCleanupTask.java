@@ -5,59 +5,209 @@ import android.graphics.Bitmap;
 import android.os.Environment;
 
 import java.io.File;
-import java.io.FilenameFilter;
-import java.util.Arrays;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import io.github.gsantner.memetastic.App;
 import io.github.gsantner.memetastic.R;
-import io.github.gsantner.memetastic.data.MemeOriginStorage;
+import io.github.gsantner.memetastic.data.SavedMemesIndex;
 
-public class ThumbnailCleanupTask extends Thread implements FilenameFilter {
-    private String strres_dotThumbnails, strres_appName;
+/**
+ * Brings the thumbnails of the saved memes in line with the memes: Both folders are listed once,
+ * thumbnails without meme get deleted and missing thumbnails are created on a few parallel workers.
+ * A resumable task stores a checkpoint while it creates thumbnails and continues after it
+ * on the next run, e.g. after it was cancelled or the process died
+ */
+public class ThumbnailCleanupTask extends Thread {
+    public static interface OnProgressListener {
+        // Called on the cleanup thread
+        void onProgress(int done, int total);
+
+        void onFinished(int created, int failed, int deleted);
+    }
+
+    private static final int MAX_WORKERS = 2;
+
+    private final String strres_dotThumbnails, strres_appName;
+    private OnProgressListener listener;
+    private int workerCount = MAX_WORKERS;
+    private long throttleMs = 0;
+    private boolean resumable = false;
+    private volatile boolean cancelled = false;
 
     public ThumbnailCleanupTask(Context context) {
         strres_appName = context.getString(R.string.app_name);
         strres_dotThumbnails = context.getString(R.string.dot_thumbnails);
     }
 
+    public ThumbnailCleanupTask setListener(OnProgressListener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * Run with fewer workers and a pause after every thumbnail, to not compete with the UI
+     *
+     * @param workerCount count of parallel workers
+     * @param throttleMs  pause of a worker after every thumbnail
+     */
+    public ThumbnailCleanupTask setThrottle(int workerCount, long throttleMs) {
+        this.workerCount = Math.max(1, workerCount);
+        this.throttleMs = throttleMs;
+        return this;
+    }
+
+    public ThumbnailCleanupTask setResumable(boolean resumable) {
+        this.resumable = resumable;
+        return this;
+    }
+
+    /**
+     * Stop after the thumbnails that are currently created
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
     public void run() {
         File picPath = new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES), strres_appName);
         File thumbPath = new File(picPath, strres_dotThumbnails);
 
-        // Scan for unused Thumbnails
-        List<File> thumbFiles = new LinkedList<File>(Arrays.asList(thumbPath.listFiles(this)));
-        for (File picFile : picPath.listFiles(this)) {
-            String filename = picFile.getName();
-            for (int i = 0; i < thumbFiles.size(); i++) {
-                if (thumbFiles.get(i).getName().equals(filename)) {
-                    thumbFiles.remove(i);
-                    break;
-                }
+        // One listing per folder. Thumbnails first: memes are written before their thumbnail,
+        // so a meme saved meanwhile can only show up without thumbnail, never the other way
+        Set<String> orphanedThumbnails = listFilenames(thumbPath);
+        Set<String> pictures = listFilenames(picPath);
+        List<String> missingThumbnails = new ArrayList<>();
+        for (String picture : pictures) {
+            if (!orphanedThumbnails.remove(picture)) {
+                missingThumbnails.add(picture);
             }
         }
 
         // Delete unused thumbnails
-        for (File thumbFile : thumbFiles) {
-            thumbFile.delete();
-        }
-
-        // Create not existing thumbs
-        MemeOriginStorage memeOriginStorage = new MemeOriginStorage(picPath, strres_dotThumbnails);
-        Map<String, String> missing = memeOriginStorage.getMissingThumbnails();
-        for (Map.Entry<String, String> entry : missing.entrySet()) {
-            Bitmap bitmap = Helpers.get().loadImageFromFilesystem(entry.getKey());
-            if (bitmap != null) {
-                File thumbFp = new File(entry.getValue());
-                bitmap = Helpers.get().createThumbnail(bitmap);
-                Helpers.get().saveBitmapToFile(thumbFp.getParent(), thumbFp.getName(), bitmap);
+        int deleted = 0;
+        for (String thumbnail : orphanedThumbnails) {
+            if (!new File(picPath, thumbnail).exists() && new File(thumbPath, thumbnail).delete()) {
+                deleted++;
             }
         }
+
+        // Create not existing thumbs, in name order so a checkpoint can be stored
+        Collections.sort(missingThumbnails);
+        AppSettings settings = AppSettings.get();
+        if (resumable) {
+            String checkpoint = settings.getThumbnailMaintenanceCheckpoint();
+            int skip = 0;
+            while (skip < missingThumbnails.size() && missingThumbnails.get(skip).compareTo(checkpoint) <= 0) {
+                skip++;
+            }
+            missingThumbnails = missingThumbnails.subList(skip, missingThumbnails.size());
+        }
+        int[] result = createThumbnails(picPath, thumbPath, missingThumbnails);
+        App.log("ThumbnailCleanupTask: " + pictures.size() + " memes, created " + result[0]
+                + " thumbnails, failed " + result[1] + ", deleted " + deleted + (cancelled ? ", cancelled" : ""));
+        if (resumable && !cancelled) {
+            settings.setThumbnailMaintenanceCheckpoint("");
+            settings.setThumbnailMaintenanceLastRun(System.currentTimeMillis());
+        }
+        SavedMemesIndex.get().rescan();
+        if (listener != null) {
+            listener.onFinished(result[0], result[1], deleted);
+        }
+    }
+
+    // Returns the count of created and failed thumbnails
+    private int[] createThumbnails(final File picPath, final File thumbPath, final List<String> filenames) {
+        final int total = filenames.size();
+        final AtomicInteger created = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        if (total == 0) {
+            return new int[]{0, 0};
+        }
+
+        // The checkpoint is the last file up to which all files are done
+        final boolean[] done = new boolean[total];
+        final int[] firstNotDone = {0};
+        final AppSettings settings = AppSettings.get();
+
+        thumbPath.mkdirs();
+        ExecutorService workers = Executors.newFixedThreadPool(Math.min(workerCount, total));
+        for (int i = 0; i < total; i++) {
+            final int index = i;
+            workers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (cancelled) {
+                        return;
+                    }
+                    if (createThumbnail(new File(picPath, filenames.get(index)), thumbPath)) {
+                        created.incrementAndGet();
+                    } else {
+                        failed.incrementAndGet();
+                    }
+                    if (resumable) {
+                        synchronized (done) {
+                            done[index] = true;
+                            int before = firstNotDone[0];
+                            while (firstNotDone[0] < total && done[firstNotDone[0]]) {
+                                firstNotDone[0]++;
+                            }
+                            if (firstNotDone[0] != before) {
+                                settings.setThumbnailMaintenanceCheckpoint(filenames.get(firstNotDone[0] - 1));
+                            }
+                        }
+                    }
+                    if (listener != null) {
+                        listener.onProgress(created.get() + failed.get(), total);
+                    }
+                    if (throttleMs > 0) {
+                        try {
+                            Thread.sleep(throttleMs);
+                        } catch (InterruptedException ignored) {
+                        }
+                    }
+                }
+            });
+        }
+        workers.shutdown();
+        try {
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            workers.shutdownNow();
+        }
+        return new int[]{created.get(), failed.get()};
+    }
+
+    private boolean createThumbnail(File picture, File thumbPath) {
+        Bitmap thumbnail = Helpers.get().createThumbnailFromFile(picture.getAbsolutePath());
+        if (thumbnail == null) {
+            return false;
+        }
+        boolean ok = Helpers.get().saveBitmapToFile(thumbPath.getAbsolutePath(), picture.getName(), thumbnail,
+                EncodeProfile.THUMBNAIL, false).success;
+        thumbnail.recycle();
+        return ok;
     }
 
-    @Override
-    public boolean accept(File dir, String filename) {
-        return new File(dir, filename).isFile();
+    private static Set<String> listFilenames(File dir) {
+        Set<String> filenames = new HashSet<>();
+        File[] files = dir.listFiles();
+        for (File file : files != null ? files : new File[0]) {
+            if (file.isFile() && MemeSaveQueue.isSavedMemeFilename(file.getName())) {
+                filenames.add(file.getName());
+            }
+        }
+        return filenames;
     }
-}
\ No newline at end of file
+}
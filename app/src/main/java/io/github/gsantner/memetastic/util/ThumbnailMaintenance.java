@@ -0,0 +1,83 @@
+package io.github.gsantner.memetastic.util;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.Build;
+
+import io.github.gsantner.memetastic.App;
+
+/**
+ * Schedules the thumbnail cleanup as a background maintenance job. From API 21 on the system
+ * runs it while the device is idle and charging, older devices run it at app start if charging.
+ * The job is throttled and resumes from its checkpoint when it gets interrupted
+ */
+public class ThumbnailMaintenance {
+    public static final int JOB_ID = 1001;
+    public static final long INTERVAL_MS = 24 * 60 * 60 * 1000;
+    public static final int WORKER_COUNT = 1;
+    public static final long THROTTLE_MS = 250;
+
+    /**
+     * Create a throttled, resumable cleanup task
+     *
+     * @param context a context
+     * @return the task, not started yet
+     */
+    public static ThumbnailCleanupTask createTask(Context context) {
+        return new ThumbnailCleanupTask(context)
+                .setThrottle(WORKER_COUNT, THROTTLE_MS)
+                .setResumable(true);
+    }
+
+    /**
+     * Make sure the maintenance job is scheduled, can be called on every app start
+     *
+     * @param context a context
+     */
+    public static void schedule(Context context) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            scheduleJob(context);
+        } else {
+            runIfDue(context);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static void scheduleJob(Context context) {
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        for (JobInfo job : scheduler.getAllPendingJobs()) {
+            if (job.getId() == JOB_ID) {
+                return;
+            }
+        }
+        scheduler.schedule(new JobInfo.Builder(JOB_ID, new ComponentName(context, ThumbnailMaintenanceJobService.class))
+                .setRequiresDeviceIdle(true)
+                .setRequiresCharging(true)
+                .setPeriodic(INTERVAL_MS)
+                .build());
+    }
+
+    // Without JobScheduler, run at app start when charging and the last run is long enough ago
+    private static void runIfDue(Context context) {
+        long lastRun = AppSettings.get().getThumbnailMaintenanceLastRun();
+        if (System.currentTimeMillis() - lastRun < INTERVAL_MS || !isCharging(context)) {
+            return;
+        }
+        App.log("ThumbnailMaintenance: running without JobScheduler");
+        ThumbnailCleanupTask task = createTask(context);
+        task.setPriority(Thread.MIN_PRIORITY);
+        task.start();
+    }
+
+    private static boolean isCharging(Context context) {
+        Intent battery = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        int plugged = battery != null ? battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) : 0;
+        return plugged != 0;
+    }
+}
@@ -0,0 +1,44 @@
+package io.github.gsantner.memetastic.util;
+
+import android.annotation.TargetApi;
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+import android.os.Build;
+
+/**
+ * Runs the thumbnail maintenance when the system schedules it, see {@link ThumbnailMaintenance}
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class ThumbnailMaintenanceJobService extends JobService {
+    private ThumbnailCleanupTask task;
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        task = ThumbnailMaintenance.createTask(this);
+        final ThumbnailCleanupTask runningTask = task;
+        task.setListener(new ThumbnailCleanupTask.OnProgressListener() {
+            @Override
+            public void onProgress(int done, int total) {
+            }
+
+            @Override
+            public void onFinished(int created, int failed, int deleted) {
+                // A cancelled task was already told to reschedule in onStopJob
+                if (!runningTask.isCancelled()) {
+                    jobFinished(params, false);
+                }
+            }
+        });
+        task.start();
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        if (task != null) {
+            task.cancel();
+        }
+        // Continue from the checkpoint next time
+        return true;
+    }
+}